@@ -0,0 +1,118 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultKeyCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.config.ConfigFileApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a number of Vault files into a fresh Environment, one default Vault and a profile-specific Vault for every
+ * further active profile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnsibleVaultEnvironmentBenchmark {
+
+    @Param({"1", "10", "50"})
+    int vaultCount;
+
+    @Param({"eager", "parallel", "lazy"})
+    String mode;
+
+    @Param({"true", "false"})
+    boolean cachedKeys;
+
+    Path directory;
+    String[] profiles;
+    SpringApplication application = new SpringApplication();
+    AnsibleVaultEnvironment postProcessor = new AnsibleVaultEnvironment();
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        directory = Files.createTempDirectory("vault-benchmark");
+        profiles = new String[vaultCount - 1];
+        Files.write(directory.resolve("vault.yml"), VaultFixtures.encrypt(VaultFixtures.yaml(1024), VaultFixtures.PASSWORD));
+        for (int i = 0; i < profiles.length; i++) {
+            profiles[i] = "profile" + i;
+            Files.write(directory.resolve("vault-" + profiles[i] + ".yml"), VaultFixtures.encrypt(VaultFixtures.yaml(1024), VaultFixtures.PASSWORD));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearKeys() {
+        if (!cachedKeys) {
+            AnsibleVaultKeyCache.getDefault().clear();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearListeners() {
+        // each invocation adds a load report, which would otherwise accumulate
+        application.setListeners(Collections.emptyList());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public ConfigurableEnvironment postProcessEnvironment() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ConfigFileApplicationListener.CONFIG_LOCATION_PROPERTY, directory.toUri().toString());
+        properties.put(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, new String(VaultFixtures.PASSWORD));
+        properties.put(AnsibleVaultEnvironment.VAULT_PARALLEL_PROPERTY, "parallel".equals(mode));
+        properties.put(AnsibleVaultEnvironment.VAULT_LAZY_PROPERTY, "lazy".equals(mode));
+
+        ConfigurableEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        environment.setActiveProfiles(profiles);
+        postProcessor.postProcessEnvironment(environment, application);
+        return environment;
+    }
+}
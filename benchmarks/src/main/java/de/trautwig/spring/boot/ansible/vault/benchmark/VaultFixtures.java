@@ -0,0 +1,70 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.benchmark;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+/**
+ * Generates Vault files for the benchmarks, so that they can be run offline and without "ansible-vault". A fixed
+ * seed is used for the plaintext, so every run works on the same data.
+ */
+public final class VaultFixtures {
+    public static final char[] PASSWORD = "benchmark".toCharArray();
+
+    /**
+     * Random binary data of the given size
+     */
+    public static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * A YAML document of approximately the given size, with one property per line
+     */
+    public static byte[] yaml(int size) {
+        StringBuilder yaml = new StringBuilder(size + 128);
+        Random random = new Random(size);
+        for (int i = 0; yaml.length() < size; i++) {
+            yaml.append("secret").append(i).append(": ").append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        return yaml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encrypt the given plaintext in "Ansible Vault" format
+     */
+    public static byte[] encrypt(byte[] plaintext, char[] password) throws GeneralSecurityException {
+        ByteArrayOutputStream vault = new ByteArrayOutputStream(plaintext.length * 4 + 1024);
+        try (AnsibleVaultOutputStream out = new AnsibleVaultOutputStream(vault, password)) {
+            out.write(plaintext);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return vault.toByteArray();
+    }
+
+    private VaultFixtures() {
+    }
+}
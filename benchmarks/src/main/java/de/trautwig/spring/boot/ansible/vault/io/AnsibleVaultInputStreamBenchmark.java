@@ -0,0 +1,79 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads whole Vaults of different sizes. The derived keys are cached after the first invocation, so this measures
+ * decoding, HMAC verification and decryption.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnsibleVaultInputStreamBenchmark {
+
+    @Param({"1024", "65536", "1048576", "10485760"})
+    int size;
+
+    byte[] vault;
+    byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        vault = VaultFixtures.encrypt(VaultFixtures.randomBytes(size), VaultFixtures.PASSWORD);
+    }
+
+    @Benchmark
+    public void readFromStream(Blackhole blackhole) throws IOException, GeneralSecurityException {
+        read(new AnsibleVaultInputStream(new ByteArrayInputStream(vault), VaultFixtures.PASSWORD), blackhole);
+    }
+
+    @Benchmark
+    public void readFromResource(Blackhole blackhole) throws IOException, GeneralSecurityException {
+        read(new AnsibleVaultInputStream(new ByteArrayResource(vault), VaultFixtures.PASSWORD), blackhole);
+    }
+
+    private void read(InputStream in, Blackhole blackhole) throws IOException {
+        try (InputStream stream = in) {
+            for (int n; (n = stream.read(buffer, 0, buffer.length)) >= 0; ) {
+                blackhole.consume(n);
+            }
+        }
+    }
+}
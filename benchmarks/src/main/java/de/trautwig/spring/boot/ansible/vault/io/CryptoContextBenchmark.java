@@ -0,0 +1,82 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up a Mac and a Cipher for every Vault with taking them from the {@link AnsibleVaultCryptoContext}
+ * of the thread, for ciphertexts of the size of an inline encrypted value up to a small Vault. Runs on several threads,
+ * as the provider lookup is partly synchronized.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CryptoContextBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    int size;
+
+    AnsibleVaultEncryptionKeys keys;
+    byte[] ciphertext;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        keys = new AnsibleVaultEncryptionKeys(VaultFixtures.PASSWORD, VaultFixtures.randomBytes(32));
+        ciphertext = VaultFixtures.randomBytes(size);
+    }
+
+    @Benchmark
+    public byte[] getInstancePerVault() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(keys.getHmacKey());
+        mac.doFinal(ciphertext);
+
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+        return cipher.doFinal(ciphertext);
+    }
+
+    @Benchmark
+    public byte[] threadLocalContext() throws GeneralSecurityException {
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            crypto.getMac(keys.getHmacKey()).doFinal(ciphertext);
+            return crypto.getCipher(Cipher.DECRYPT_MODE, keys.getCipherKey(), keys.getIv()).doFinal(ciphertext);
+        }
+    }
+}
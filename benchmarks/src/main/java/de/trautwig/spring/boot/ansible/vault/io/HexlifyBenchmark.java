@@ -0,0 +1,100 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HexlifyBenchmark {
+
+    @Param({"1024", "65536", "1048576", "10485760"})
+    int size;
+
+    byte[] binary;
+    char[] hex;
+    String hexString;
+    byte[] wrappedAscii;
+    byte[] decoded;
+    ByteBuffer decodedBuffer;
+
+    @Setup
+    public void setUp() {
+        binary = VaultFixtures.randomBytes(size);
+        hex = Hexlify.hexlify(binary, 0, binary.length);
+        hexString = new String(hex);
+        decoded = new byte[size];
+        decodedBuffer = ByteBuffer.wrap(decoded);
+
+        // ASCII text wrapped at 80 columns, like the body of a Vault file
+        StringBuilder wrapped = new StringBuilder(hex.length + hex.length / 80 + 1);
+        for (int i = 0; i < hex.length; i += 80) {
+            wrapped.append(hex, i, Math.min(80, hex.length - i)).append('\n');
+        }
+        wrappedAscii = wrapped.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public char[] hexlify() {
+        return Hexlify.hexlify(binary, 0, binary.length);
+    }
+
+    @Benchmark
+    public byte[] unhexlifyCharArray() {
+        return Hexlify.unhexlify(hex, 0, hex.length);
+    }
+
+    @Benchmark
+    public byte[] unhexlifyString() {
+        return Hexlify.unhexlify(hexString);
+    }
+
+    @Benchmark
+    public int unhexlifyIntoArray() {
+        return Hexlify.unhexlify(hex, 0, hex.length, decoded, 0);
+    }
+
+    @Benchmark
+    public int unhexlifyWrappedAscii() {
+        return Hexlify.unhexlifyAscii(wrappedAscii, 0, wrappedAscii.length, decoded, 0);
+    }
+
+    @Benchmark
+    public int unhexlifyWrappedAsciiBuffer() {
+        ((Buffer) decodedBuffer).clear();
+        return Hexlify.unhexlify(ByteBuffer.wrap(wrappedAscii), decodedBuffer);
+    }
+}
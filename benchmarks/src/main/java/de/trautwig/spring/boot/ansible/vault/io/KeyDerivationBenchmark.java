@@ -0,0 +1,60 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyDerivationBenchmark {
+
+    byte[] salt;
+    AnsibleVaultKeyCache cache;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        salt = VaultFixtures.randomBytes(32);
+        cache = new AnsibleVaultKeyCache(1);
+        cache.getKeys(VaultFixtures.PASSWORD, salt);
+    }
+
+    @Benchmark
+    public AnsibleVaultEncryptionKeys derive() throws GeneralSecurityException {
+        return new AnsibleVaultEncryptionKeys(VaultFixtures.PASSWORD, salt);
+    }
+
+    @Benchmark
+    public AnsibleVaultEncryptionKeys cached() throws GeneralSecurityException {
+        return cache.getKeys(VaultFixtures.PASSWORD, salt);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decrypting a ciphertext with a single Cipher to splitting it into segments which are decrypted on a
+ * {@link ForkJoinPool}, for several ciphertext sizes and numbers of threads. The segments are decrypted regardless
+ * of {@link AnsibleVaultParallelDecryptor#PARALLEL_THRESHOLD}, which should be close to the smallest size at which
+ * the parallel variant wins.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelDecryptionBenchmark {
+
+    @Param({"262144", "1048576", "4194304", "33554432"})
+    int size;
+
+    @Param({"2", "4", "8"})
+    int threads;
+
+    AnsibleVaultEncryptionKeys keys;
+    ForkJoinPool pool;
+    byte[] ciphertext;
+    byte[] buffer;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        keys = new AnsibleVaultEncryptionKeys(VaultFixtures.PASSWORD, VaultFixtures.randomBytes(32));
+        pool = new ForkJoinPool(threads);
+        ciphertext = VaultFixtures.randomBytes(size);
+        buffer = new byte[size];
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] sequential() throws GeneralSecurityException {
+        // both variants decrypt in place, like AnsibleVaultInputStream
+        System.arraycopy(ciphertext, 0, buffer, 0, size);
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+        cipher.doFinal(buffer, 0, size, buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] parallel() throws GeneralSecurityException {
+        System.arraycopy(ciphertext, 0, buffer, 0, size);
+        AnsibleVaultParallelDecryptor.decryptSegments(keys, buffer, size, pool);
+        return buffer;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import de.trautwig.spring.boot.ansible.vault.benchmark.VaultFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares verifying and decrypting an already decoded ciphertext in two separate passes, like
+ * {@link AnsibleVaultInputStream} used to do, with feeding each chunk to both the Mac and the Cipher.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadDecryptionBenchmark {
+    private static final int CHUNK_SIZE = 8192;
+
+    @Param({"65536", "1048576", "10485760"})
+    int size;
+
+    AnsibleVaultEncryptionKeys keys;
+    byte[] ciphertext;
+    byte[] plaintext;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        keys = new AnsibleVaultEncryptionKeys(VaultFixtures.PASSWORD, VaultFixtures.randomBytes(32));
+        ciphertext = VaultFixtures.randomBytes(size);
+        plaintext = new byte[size];
+    }
+
+    @Benchmark
+    public byte[] separatePasses() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(keys.getHmacKey());
+        mac.doFinal(ciphertext);
+
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+        return cipher.doFinal(ciphertext);
+    }
+
+    @Benchmark
+    public byte[] singlePass() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(keys.getHmacKey());
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+
+        int length = 0;
+        for (int offset = 0; offset < ciphertext.length; offset += CHUNK_SIZE) {
+            int n = Math.min(CHUNK_SIZE, ciphertext.length - offset);
+            mac.update(ciphertext, offset, n);
+            length += cipher.update(ciphertext, offset, n, plaintext, length);
+        }
+        mac.doFinal();
+        return plaintext;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.maven;
+
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultEnvironment;
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultManifest;
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultPasswordSource;
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultPasswords;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Verifies each Vault among the resources of a project, so that a wrong password, a tampered Vault or a broken header
+ * fails the build instead of the application start. For each Vault, an {@link AnsibleVaultManifest} with the names of
+ * its properties is written next to it, which lets lazily loaded Vaults answer lookups without decrypting.
+ * <p>
+ * The password is determined by the registered {@link AnsibleVaultPasswordSource}s like at runtime, using the
+ * parameters 'secret' and 'secrets', system properties and environment variables. The password file 'vault.secret'
+ * is looked up relative to the working directory of Maven.
+ */
+@Mojo(name = "verify", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, threadSafe = true)
+public class VerifyVaultsMojo extends AbstractMojo {
+
+    /**
+     * The directory to search for Vaults, after the resources have been copied
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File directory;
+
+    /**
+     * Glob patterns of the Vaults, relative to the directory
+     */
+    @Parameter(defaultValue = "vault*.yml,**/vault*.yml")
+    private String[] includes;
+
+    /**
+     * The default password, or '@' followed by the path of a password file or script, like 'ansible.vault.secret'
+     */
+    @Parameter(property = "ansible.vault.secret")
+    private String secret;
+
+    /**
+     * The passwords of Vaults labeled with a vault-id, by vault-id
+     */
+    @Parameter
+    private Map<String, String> secrets;
+
+    /**
+     * Whether to write a manifest for each Vault
+     */
+    @Parameter(property = "ansible.vault.manifest", defaultValue = "true")
+    private boolean manifest;
+
+    @Parameter(property = "ansible.vault.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping Vault verification");
+            return;
+        }
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        List<Path> vaults = findVaults();
+        List<String> failures = new ArrayList<>();
+        try (AnsibleVaultPasswords passwords = AnsibleVaultPasswords.create(createEnvironment())) {
+            for (Path vault : vaults) {
+                try {
+                    verify(vault, passwords);
+                } catch (IOException | RuntimeException e) {
+                    failures.add(directory.toPath().relativize(vault) + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new MojoFailureException("Unable to verify " + failures.size() + " vault(s):\n  " + String.join("\n  ", failures));
+        }
+        getLog().info("Verified " + vaults.size() + " vault(s)");
+    }
+
+    private void verify(Path vault, AnsibleVaultPasswords passwords) throws IOException {
+        AnsibleVaultManifest vaultManifest = AnsibleVaultManifest.create(new FileSystemResource(vault.toFile()), passwords);
+        Path manifestFile = vault.resolveSibling(vault.getFileName() + AnsibleVaultManifest.FILE_SUFFIX);
+        if (manifest) {
+            try (OutputStream out = Files.newOutputStream(manifestFile)) {
+                vaultManifest.write(out);
+            }
+            getLog().debug("Wrote " + manifestFile + " with " + vaultManifest.getPropertyNames().size() + " property name(s)");
+        } else {
+            Files.deleteIfExists(manifestFile);
+        }
+    }
+
+    private List<Path> findVaults() throws MojoExecutionException {
+        Path root = directory.toPath();
+        List<PathMatcher> matchers = Arrays.stream(includes)
+                .map(include -> FileSystems.getDefault().getPathMatcher("glob:" + include.trim()))
+                .collect(Collectors.toList());
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> matchers.stream().anyMatch(matcher -> matcher.matches(root.relativize(file))))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to search " + directory + " for vaults", e);
+        }
+    }
+
+    private ConfigurableEnvironment createEnvironment() {
+        Map<String, Object> properties = new HashMap<>();
+        if (secret != null) {
+            properties.put(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, secret);
+        }
+        if (secrets != null) {
+            secrets.forEach((vaultId, password) -> properties.put(AnsibleVaultEnvironment.getVaultSecretProperty(vaultId), password));
+        }
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("ansible-vault-maven-plugin", properties));
+        return environment;
+    }
+}
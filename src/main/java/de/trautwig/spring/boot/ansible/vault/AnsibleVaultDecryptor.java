@@ -0,0 +1,309 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultInputStream;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.event.ApplicationFailedEvent;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Decrypts Vaults on demand, e.g. credentials which are stored as Vault text in a database. The passwords are taken
+ * from the same {@link AnsibleVaultPasswordSource}s as for the Vault files, and are kept until the application
+ * context is closed.
+ * <p>
+ * Decrypted Vaults are cached, up to a maximum number of plaintext bytes and for a limited time, so that a Vault which
+ * is decrypted repeatedly is only verified and decrypted once. The cache is keyed by the SHA-256 digest of the Vault,
+ * so a modified Vault is never answered from the cache. Entries are zeroized when they are evicted or expire, and
+ * when the decryptor is closed. Callers always receive a copy of the plaintext.
+ * <p>
+ * The decryptor is registered as a bean when the application context is initialized. Its cache is configured by
+ * the properties 'ansible.vault.decryptor-cache-size' in bytes (default: 1 MiB, 0 disables caching) and
+ * 'ansible.vault.decryptor-cache-ttl' in milliseconds (default: 5 minutes).
+ */
+public class AnsibleVaultDecryptor implements ApplicationContextInitializer<ConfigurableApplicationContext>, ApplicationListener<ApplicationEvent>, Closeable {
+    public static final String BEAN_NAME = "ansibleVaultDecryptor";
+
+    private final Function<String, char[]> passwords;
+    private final Runnable releasePasswords;
+    private final long maximumCacheSize;
+    private final long timeToLive;
+    private final Map<ByteBuffer, CachedPlaintext> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+    private long cachedBytes;
+    private volatile boolean closed;
+
+    private ConfigurableApplicationContext context;
+
+    /**
+     * @param passwords        returns the password for the vault-id of a Vault
+     * @param maximumCacheSize the maximum number of plaintext bytes to keep, 0 disables caching
+     * @param timeToLive       the time in milliseconds a decrypted Vault is kept
+     */
+    public AnsibleVaultDecryptor(Function<String, char[]> passwords, long maximumCacheSize, long timeToLive) {
+        this(passwords, () -> {
+        }, maximumCacheSize, timeToLive);
+    }
+
+    /**
+     * @param releasePasswords called when the decryptor is closed, to zeroize the passwords
+     */
+    AnsibleVaultDecryptor(Function<String, char[]> passwords, Runnable releasePasswords, long maximumCacheSize, long timeToLive) {
+        if (maximumCacheSize < 0) {
+            throw new IllegalArgumentException("maximum cache size must not be negative");
+        }
+        this.passwords = passwords;
+        this.releasePasswords = releasePasswords;
+        this.maximumCacheSize = maximumCacheSize;
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+    }
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        this.context = context;
+        ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+        if (!beanFactory.containsSingleton(BEAN_NAME)) {
+            beanFactory.registerSingleton(BEAN_NAME, this);
+        }
+        context.addApplicationListener(this);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextClosedEvent && ((ContextClosedEvent) event).getApplicationContext() == this.context) {
+            close();
+        } else if (event instanceof ApplicationFailedEvent) {
+            close();
+        }
+    }
+
+    /**
+     * @param vault the Vault, including its header
+     * @return the plaintext, which the caller may zeroize
+     */
+    public byte[] decrypt(byte[] vault) throws IOException, GeneralSecurityException {
+        if (maximumCacheSize == 0) {
+            missCount.incrementAndGet();
+            return decryptUncached(vault);
+        }
+        ByteBuffer key = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(vault));
+        byte[] cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        missCount.incrementAndGet();
+        byte[] plaintext = decryptUncached(vault);
+        store(key, plaintext);
+        return plaintext;
+    }
+
+    /**
+     * @param vault the Vault, including its header. The stream is read completely, but not closed.
+     * @return the plaintext, which the caller may zeroize
+     */
+    public byte[] decrypt(InputStream vault) throws IOException, GeneralSecurityException {
+        return decrypt(StreamUtils.copyToByteArray(vault));
+    }
+
+    /**
+     * @param vault the Vault text, including its header, e.g. as stored in a database
+     * @return the plaintext, which the caller may zeroize
+     */
+    public byte[] decrypt(CharSequence vault) throws IOException, GeneralSecurityException {
+        ByteBuffer encoded = StandardCharsets.US_ASCII.encode(CharBuffer.wrap(vault));
+        return decrypt(Arrays.copyOfRange(encoded.array(), encoded.position(), encoded.limit()));
+    }
+
+    /**
+     * Decrypt a Vault whose contents are text in UTF-8, like a Vault file. Note that the returned String cannot be
+     * zeroized.
+     */
+    public String decryptToString(CharSequence vault) throws IOException, GeneralSecurityException {
+        byte[] plaintext = decrypt(vault);
+        try {
+            return new String(plaintext, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0x00);
+        }
+    }
+
+    private byte[] decryptUncached(byte[] vault) throws IOException, GeneralSecurityException {
+        if (closed) {
+            throw new IllegalStateException("vault decryptor has been closed");
+        }
+        try (InputStream in = new AnsibleVaultInputStream(new ByteArrayInputStream(vault), passwords, new AnsibleVaultTimings());
+             AnsibleVaultPlaintext plaintext = AnsibleVaultPlaintext.read(in)) {
+            return plaintext.toByteArray();
+        }
+    }
+
+    private synchronized byte[] lookup(ByteBuffer key) {
+        CachedPlaintext entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(key);
+            remove(entry);
+            expirationCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.plaintext.clone();
+    }
+
+    private synchronized void store(ByteBuffer key, byte[] plaintext) {
+        if (closed || plaintext.length > maximumCacheSize) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Iterator<CachedPlaintext> it = entries.values().iterator(); it.hasNext(); ) {
+            CachedPlaintext entry = it.next();
+            if (entry.isExpired(now)) {
+                it.remove();
+                remove(entry);
+                expirationCount.incrementAndGet();
+            }
+        }
+
+        CachedPlaintext replaced = entries.put(key, new CachedPlaintext(plaintext.clone(), now + timeToLive));
+        if (replaced != null) {
+            remove(replaced);
+        }
+        cachedBytes += plaintext.length;
+        // evict the least recently used entries
+        for (Iterator<CachedPlaintext> it = entries.values().iterator(); cachedBytes > maximumCacheSize && it.hasNext(); ) {
+            CachedPlaintext entry = it.next();
+            it.remove();
+            remove(entry);
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void remove(CachedPlaintext entry) {
+        cachedBytes -= entry.plaintext.length;
+        Arrays.fill(entry.plaintext, (byte) 0x00);
+    }
+
+    /**
+     * @return the number of decryptions which have been answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of Vaults which have been decrypted
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries which have been removed to stay within the maximum cache size
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the number of entries which have been removed because they have been kept longer than the time to live
+     */
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    /**
+     * @return the number of plaintext bytes currently held by the cache
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public long getMaximumCacheSize() {
+        return maximumCacheSize;
+    }
+
+    /**
+     * @return the number of decrypted Vaults currently held by the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Zeroize and remove all cached plaintexts
+     */
+    public synchronized void clear() {
+        entries.values().forEach(this::remove);
+        entries.clear();
+    }
+
+    /**
+     * Clear the cache and zeroize the passwords. The decryptor cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            clear();
+        }
+        releasePasswords.run();
+    }
+
+    private static final class CachedPlaintext {
+        private final byte[] plaintext;
+        private final long expiresAt;
+
+        CachedPlaintext(byte[] plaintext, long expiresAt) {
+            this.plaintext = plaintext;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
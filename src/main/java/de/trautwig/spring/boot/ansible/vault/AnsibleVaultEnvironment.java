@@ -15,6 +15,11 @@
  */
 package de.trautwig.spring.boot.ansible.vault;
 
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultInputStream;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultKeyCache;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultPersistentKeyCache;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings.Phase;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.context.config.ConfigFileApplicationListener;
 import org.springframework.boot.env.EnvironmentPostProcessor;
@@ -25,13 +30,29 @@ import org.springframework.core.env.PropertySource;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
-import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.ResourceUtils;
+import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * {@link EnvironmentPostProcessor} that loads "Ansible Vault" encrypted configuration files from well-known locations.
@@ -46,126 +67,572 @@ import java.util.function.Supplier;
  * Additional files will also be loaded depending on the active profiles. For example, if a 'production' profile is
  * active, 'vault-production.yml' will also be considered (if it exists).
  * <p>
+ * Further Vault files can be imported with the property 'spring.config.import', using the syntax of later Spring Boot
+ * versions, e.g. 'spring.config.import=ansible-vault:file:./secrets/vault.yml,optional:ansible-vault:classpath:/db/'.
+ * A location ending with '/' is a directory, which is searched for the names above. An imported Vault file must exist
+ * unless it is marked 'optional:', and its profile-specific variants are considered as well. Imported Vaults take
+ * precedence over the Vaults found in the default locations, and later imports over earlier ones. Other imports are
+ * left to Spring Boot.
+ * <p>
  * In order to decrypt the Vault, a password is needed. This is fetched from any registered {@link AnsibleVaultPasswordSource}.
  * By default, a text file 'vault.secrets' in the current working directory is used. Otherwise, a password can be specified
  * by via the Environment property 'ansible.vault.secret'. If the value starts with '@', the remainder is the path to
- * a password file, otherwise the value is assumed to be the password. All Vault files must use the same password.
+ * a password file, otherwise the value is assumed to be the password. If the password file is executable, it is run
+ * as a script, see {@link AnsibleVaultScriptPasswordSource}.
+ * <p>
+ * If the property 'ansible.vault.secret-prefetch' is set to true, the password is determined on a background thread
+ * while the Vault files are located, e.g. while a password script is running. The sources are asked in the order of
+ * their {@link org.springframework.core.annotation.Order} annotations. If the property 'ansible.vault.secret-concurrent'
+ * is set to true, they are all asked at once, and the answer of the first source in order is used.
+ * <p>
+ * Vault files in format 1.2 are labeled with a vault-id. Their password is taken from the property
+ * 'ansible.vault.secret.&lt;vault-id&gt;' in the same way, so that Vault files may use different passwords. Each
+ * password is only looked up once a Vault file with this vault-id is loaded. If there is no password for a vault-id,
+ * the default password is used.
+ * <p>
+ * If the property 'ansible.vault.parallel' is set to true, all Vault files are decrypted concurrently. They are still
+ * added to the Environment in the order described above.
+ * <p>
+ * If the property 'ansible.vault.lazy' is set to true, each Vault file with an {@link AnsibleVaultManifest} is only
+ * decrypted when one of the properties listed in the manifest is requested for the first time. Errors, like a missing
+ * password, are then reported at that point. Spring Boot looks up some properties right after the Environment has been
+ * prepared, and without a manifest only decrypting the Vault tells whether it contains them, so Vault files without a
+ * manifest are still decrypted at startup.
+ * <p>
+ * If the property 'ansible.vault.watch' is set to true, Vault files loaded from the file system are watched for
+ * changes and reloaded by an {@link AnsibleVaultWatcher}. The property 'ansible.vault.watch-delay' sets the time in
+ * milliseconds a file must not have been modified before it is reloaded.
+ * <p>
+ * The decrypted Vault is parsed into {@link AnsibleVaultPropertySource}s, which keep the values in a single buffer
+ * outside of the heap and only create Strings on request. If the Vault uses YAML that this parser does not support, or
+ * the property 'ansible.vault.compact' is set to false, Spring Boot's YAML loader is used instead.
+ * <p>
+ * Single values encrypted with "ansible-vault encrypt_string" may also be used in regular YAML configuration files,
+ * see {@link AnsibleVaultYamlPropertySourceLoader}. Each of them is decrypted when it is requested for the first time.
+ * Their passwords are determined once, and shared with lazily loaded Vaults and the {@link AnsibleVaultDecryptor}.
+ * <p>
+ * If the property 'ansible.vault.key-cache' is set to a file path, the keys derived from the Vault passwords are kept
+ * in this file, see {@link AnsibleVaultPersistentKeyCache}. The entries are protected by the Vault password, or by the
+ * key file set with the property 'ansible.vault.key-cache-key-file'. The keys held in memory, and the keys protecting
+ * this file, are zeroized when the application context is closed.
+ * <p>
+ * The time spent loading each Vault file is recorded in an {@link AnsibleVaultLoadReport}, which is logged at debug
+ * level and registered as a bean.
  *
  * @see ConfigFileApplicationListener
  * @see AnsibleVaultPasswordSource
+ * @see AnsibleVaultWatcher
+ * @see AnsibleVaultLoadReport
  */
 public class AnsibleVaultEnvironment implements EnvironmentPostProcessor {
     private static final String DEFAULT_SEARCH_LOCATIONS = "classpath:/,classpath:/config/,file:./,file:./config/";
     private static final String DEFAULT_NAME = "vault";
     private static final String FILE_EXTENSION = ".yml";
+    private static final String CONFIG_IMPORT_PROPERTY = "spring.config.import";
+    private static final String IMPORT_PREFIX = "ansible-vault:";
+    private static final String OPTIONAL_PREFIX = "optional:";
+    private static final long DEFAULT_WATCH_DELAY = 500;
+    private static final long DEFAULT_DECRYPTOR_CACHE_SIZE = 1024 * 1024;
+    private static final long DEFAULT_DECRYPTOR_CACHE_TTL = 5 * 60 * 1000;
 
     public static final String VAULT_NAME_PROPERTY = "ansible.vault.name";
     public static final String VAULT_SECRET_PROPERTY = "ansible.vault.secret";
+    public static final String VAULT_SECRET_TIMEOUT_PROPERTY = "ansible.vault.secret-timeout";
+    public static final String VAULT_SECRET_PREFETCH_PROPERTY = "ansible.vault.secret-prefetch";
+    public static final String VAULT_SECRET_CONCURRENT_PROPERTY = "ansible.vault.secret-concurrent";
+    public static final String VAULT_PARALLEL_PROPERTY = "ansible.vault.parallel";
+    public static final String VAULT_LAZY_PROPERTY = "ansible.vault.lazy";
+    public static final String VAULT_COMPACT_PROPERTY = "ansible.vault.compact";
+    public static final String VAULT_WATCH_PROPERTY = "ansible.vault.watch";
+    public static final String VAULT_WATCH_DELAY_PROPERTY = "ansible.vault.watch-delay";
+    public static final String VAULT_KEY_CACHE_PROPERTY = "ansible.vault.key-cache";
+    public static final String VAULT_KEY_CACHE_KEY_FILE_PROPERTY = "ansible.vault.key-cache-key-file";
+    public static final String VAULT_DECRYPTOR_CACHE_SIZE_PROPERTY = "ansible.vault.decryptor-cache-size";
+    public static final String VAULT_DECRYPTOR_CACHE_TTL_PROPERTY = "ansible.vault.decryptor-cache-ttl";
+
+    /**
+     * @return the name of the property holding the password for Vaults labeled with the given vault-id
+     */
+    public static String getVaultSecretProperty(String vaultId) {
+        return VAULT_SECRET_PROPERTY + "." + vaultId;
+    }
+
+    /**
+     * @see AnsibleVaultPasswords#create(Environment)
+     */
+    static PasswordSupplier createPasswordSupplier(Environment environment) {
+        return new PasswordSupplier(environment, new AnsibleVaultLoadReport());
+    }
 
     @Override
     public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
-        try (PasswordSupplier passwordSupplier = new PasswordSupplier(environment)) {
-            new Loader(environment, passwordSupplier).load();
+        AnsibleVaultLoadReport report = new AnsibleVaultLoadReport();
+        application.addInitializers(report);
+        // Vaults decrypted after startup share their passwords, which are kept until the decryptor is closed
+        PasswordSupplier onDemandPasswordSupplier = new PasswordSupplier(environment, report);
+        for (PropertySource<?> propertySource : environment.getPropertySources()) {
+            if (propertySource instanceof AnsibleVaultInlinePropertySource) {
+                ((AnsibleVaultInlinePropertySource) propertySource).setDecryptor(vaultText -> decryptInline(onDemandPasswordSupplier, vaultText));
+            }
+        }
+
+        AnsibleVaultPersistentKeyCache persistentKeyCache = openPersistentKeyCache(environment);
+        if (persistentKeyCache != null) {
+            // write the keys of all Vaults at once, instead of rewriting the file for each Vault
+            persistentKeyCache.deferWrites();
+        }
+        AnsibleVaultKeyCache.getDefault().setPersistentCache(persistentKeyCache);
+        application.addInitializers(new AnsibleVaultKeyCacheCloser(AnsibleVaultKeyCache.getDefault(), persistentKeyCache));
+        try (PasswordSupplier passwordSupplier = new PasswordSupplier(environment, report)) {
+            if (environment.getProperty(VAULT_SECRET_PREFETCH_PROPERTY, Boolean.class, false)) {
+                passwordSupplier.prefetch();
+            }
+            Loader loader = new Loader(environment, passwordSupplier, onDemandPasswordSupplier, report);
+            loader.load();
+            if (persistentKeyCache != null) {
+                // lazily loaded Vaults have not been decrypted yet, so keep their keys
+                if (!environment.getProperty(VAULT_LAZY_PROPERTY, Boolean.class, false)) {
+                    persistentKeyCache.retainUsed();
+                }
+                persistentKeyCache.flush();
+                report.recordKeyCache(persistentKeyCache);
+            }
+            if (environment.getProperty(VAULT_WATCH_PROPERTY, Boolean.class, false)) {
+                application.addInitializers(createWatcher(environment, loader));
+            }
         }
+        application.addInitializers(createDecryptor(environment, onDemandPasswordSupplier));
     }
 
-    private static class PasswordSupplier implements Supplier<char[]>, AutoCloseable {
-        private final Environment environment;
+    private AnsibleVaultPersistentKeyCache openPersistentKeyCache(Environment environment) {
+        String file = environment.getProperty(VAULT_KEY_CACHE_PROPERTY);
+        if (!StringUtils.hasText(file)) {
+            return null;
+        }
+        String keyFile = environment.getProperty(VAULT_KEY_CACHE_KEY_FILE_PROPERTY);
+        try {
+            if (StringUtils.hasText(keyFile)) {
+                return AnsibleVaultPersistentKeyCache.open(Paths.get(file), Paths.get(keyFile));
+            }
+            return AnsibleVaultPersistentKeyCache.open(Paths.get(file));
+        } catch (IOException e) {
+            throw new RuntimeException("unable to open vault key cache: " + e.getMessage(), e);
+        }
+    }
+
+    private String decryptInline(PasswordSupplier passwordSupplier, String vaultText) {
+        try (InputStream in = new AnsibleVaultInputStream(new ByteArrayInputStream(vaultText.getBytes(StandardCharsets.US_ASCII)), passwordSupplier, new AnsibleVaultTimings())) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException("unable to decrypt inline vault value: " + e.getMessage(), e);
+        }
+    }
+
+    private AnsibleVaultWatcher createWatcher(ConfigurableEnvironment environment, Loader loader) {
+        long delay = environment.getProperty(VAULT_WATCH_DELAY_PROPERTY, Long.class, DEFAULT_WATCH_DELAY);
+        AnsibleVaultWatcher watcher = new AnsibleVaultWatcher(environment, loader::reload, delay);
+        loader.getLoadedVaults().forEach((resource, propertySourceNames) -> {
+            if (resource.isFile()) {
+                try {
+                    watcher.watch(loader.getPropertySourceName(resource), resource, propertySourceNames);
+                } catch (IOException e) {
+                    throw new RuntimeException("unable to watch vault: [" + resource + "]: " + e.getMessage(), e);
+                }
+            }
+        });
+        return watcher;
+    }
+
+    private AnsibleVaultDecryptor createDecryptor(Environment environment, PasswordSupplier passwordSupplier) {
+        long cacheSize = environment.getProperty(VAULT_DECRYPTOR_CACHE_SIZE_PROPERTY, Long.class, DEFAULT_DECRYPTOR_CACHE_SIZE);
+        long cacheTtl = environment.getProperty(VAULT_DECRYPTOR_CACHE_TTL_PROPERTY, Long.class, DEFAULT_DECRYPTOR_CACHE_TTL);
+        // the passwords are only determined once they are needed, and kept until the decryptor is closed
+        return new AnsibleVaultDecryptor(passwordSupplier, passwordSupplier::close, cacheSize, cacheTtl);
+    }
+
+    /**
+     * Determines each password once, and keeps it until it is closed
+     */
+    static final class PasswordSupplier implements Supplier<char[]>, AnsibleVaultPasswords {
+        private final Map<String, char[]> passwordsByVaultId = new HashMap<>();
+        private final AnsibleVaultPasswordSources sources;
+        private CompletableFuture<char[]> prefetched;
         private char[] password;
 
-        public PasswordSupplier(Environment environment) {
-            this.environment = environment;
+        private PasswordSupplier(Environment environment, AnsibleVaultLoadReport report) {
+            this.sources = new AnsibleVaultPasswordSources(environment, report);
+        }
+
+        /**
+         * Determine the default password on a background thread. Errors are only reported once the password is needed.
+         */
+        synchronized void prefetch() {
+            if (this.password == null && this.prefetched == null) {
+                CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ansible-vault-password-");
+                threadFactory.setDaemon(true);
+                this.prefetched = new CompletableFuture<>();
+                threadFactory.newThread(() -> {
+                    try {
+                        this.prefetched.complete(getFromSources());
+                    } catch (RuntimeException e) {
+                        this.prefetched.completeExceptionally(e);
+                    }
+                }).start();
+            }
         }
 
         @Override
-        public char[] get() {
+        public synchronized char[] get() {
             if (this.password == null) {
-                this.password = getFromSources();
+                this.password = this.prefetched != null ? awaitPrefetched() : getFromSources();
             }
             return this.password;
         }
 
+        private char[] awaitPrefetched() {
+            try {
+                return this.prefetched.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        /**
+         * Get the password for a vault-id, or the default password for Vaults without vault-id
+         */
+        @Override
+        public synchronized char[] apply(String vaultId) {
+            if (vaultId == null) {
+                return get();
+            }
+            char[] password = this.passwordsByVaultId.get(vaultId);
+            if (password == null) {
+                password = getFromSources(vaultId);
+                if (password == null) {
+                    password = get();
+                }
+                this.passwordsByVaultId.put(vaultId, password);
+            }
+            return password;
+        }
+
+        private char[] getFromSources(String vaultId) {
+            return this.sources.getPassword(vaultId);
+        }
+
         private char[] getFromSources() {
-            Optional<char[]> password = SpringFactoriesLoader.loadFactories(AnsibleVaultPasswordSource.class, getClass().getClassLoader()).stream().
-                    map(source -> source.getVaultPassword(environment)).filter(pwd -> pwd != null).findFirst();
+            char[] password = this.sources.getPassword(null);
 
-            if (!password.isPresent()) {
+            if (password == null) {
                 throw new RuntimeException("unable to determine vault password, check environment property '" + VAULT_SECRET_PROPERTY + "'");
             }
 
-            return password.get();
+            return password;
         }
 
         @Override
-        public void close() {
+        public synchronized void close() {
+            if (this.prefetched != null) {
+                // the password may still be determined after the Vault files have been loaded
+                this.prefetched.thenAccept(password -> Arrays.fill(password, '\0'));
+            }
             if (this.password != null) {
                 Arrays.fill(this.password, '\0');
             }
+            // determine the passwords again if they are needed after all
+            this.prefetched = null;
+            this.password = null;
+            this.passwordsByVaultId.values().forEach(password -> Arrays.fill(password, '\0'));
+            this.passwordsByVaultId.clear();
         }
     }
 
     private static class Loader {
         private final ConfigurableEnvironment environment;
-        private final Supplier<char[]> vaultPasswordSupplier;
+        private final PasswordSupplier vaultPasswordSupplier;
+        private final PasswordSupplier onDemandPasswordSupplier;
         private final ResourceLoader resourceLoader = new DefaultResourceLoader();
         private final YamlPropertySourceLoader yamlLoader = new YamlPropertySourceLoader();
+        private final AnsibleVaultLoadReport report;
+        private final Map<Resource, List<String>> loadedVaults = new ConcurrentHashMap<>();
+        private final Set<String> requiredLocations = new HashSet<>();
+        private AnsibleVaultLocationIndex locationIndex;
 
-        Loader(ConfigurableEnvironment environment, Supplier<char[]> vaultPasswordSupplier) {
+        /**
+         * @param vaultPasswordSupplier    decrypts the Vaults at startup
+         * @param onDemandPasswordSupplier decrypts lazily loaded and reloaded Vaults
+         */
+        Loader(ConfigurableEnvironment environment, PasswordSupplier vaultPasswordSupplier, PasswordSupplier onDemandPasswordSupplier,
+               AnsibleVaultLoadReport report) {
             this.environment = environment;
             this.vaultPasswordSupplier = vaultPasswordSupplier;
+            this.onDemandPasswordSupplier = onDemandPasswordSupplier;
+            this.report = report;
         }
 
         public void load() {
-            LinkedList<PropertySource> propertySources = new LinkedList<>();
+            // a location may be imported as well as searched, but is only loaded once, with the higher precedence
+            Set<String> collected = new LinkedHashSet<>();
+
+            // Load imported Vault files first
+            getImportLocations().forEach((location, optional) -> collectImport(location, optional, collected::add));
 
             // Load any profile-specific Vault files
             LinkedList<String> profiles = new LinkedList<>(Arrays.asList(environment.getActiveProfiles()));
             while (!profiles.isEmpty()) {
-                load(profiles.poll(), propertySources::add);
+                collect(profiles.poll(), collected::add);
             }
 
             // Load the default Vault file last
-            load(null, propertySources::add);
+            collect(null, collected::add);
+            List<String> candidates = new ArrayList<>(collected);
+
+            // List each search location once instead of probing the candidates of every profile
+            locationIndex = new AnsibleVaultLocationIndex(resourceLoader, candidates, FILE_EXTENSION);
+
+            List<PropertySource<?>> propertySources;
+            if (isLazy()) {
+                propertySources = loadLazily(candidates);
+            } else if (environment.getProperty(VAULT_PARALLEL_PROPERTY, Boolean.class, false)) {
+                propertySources = loadConcurrently(candidates);
+            } else {
+                propertySources = loadSequentially(candidates);
+            }
 
             propertySources.forEach(environment.getPropertySources()::addLast);
+            report.logSummary();
+        }
+
+        /**
+         * Decrypt a Vault again after it has been modified. Lazily loaded Vaults are only decrypted once accessed.
+         */
+        public List<PropertySource<?>> reload(Resource resource) {
+            AnsibleVaultManifest manifest = isLazy() ? AnsibleVaultManifest.find(resource) : null;
+            if (manifest != null) {
+                return Collections.singletonList(createLazyPropertySource(resource, manifest));
+            }
+            return loadVaultOnDemand(resource);
         }
 
-        private void load(String profile, Consumer<? super PropertySource> consumer) {
+        /**
+         * @return the names of the property sources of each Vault file that has been found
+         */
+        public Map<Resource, List<String>> getLoadedVaults() {
+            return loadedVaults;
+        }
+
+        private boolean isLazy() {
+            return environment.getProperty(VAULT_LAZY_PROPERTY, Boolean.class, false);
+        }
+
+        private void collect(String profile, Consumer<String> consumer) {
             getSearchLocations().forEach(location -> {
                 boolean isFolder = location.endsWith("/");
                 if (isFolder) {
                     getSearchNames().forEach(name -> {
-                        load(location + name, profile, consumer);
+                        collect(location + name, profile, consumer);
                     });
                 } else {
-                    load(location, profile, consumer);
+                    collect(location, profile, consumer);
                 }
             });
         }
 
-        private void load(String prefix, String profile, Consumer<? super PropertySource> consumer) {
-            String profileSpecificFile;
+        /**
+         * Collect an imported location and its profile-specific variants, which are always optional
+         */
+        private void collectImport(String location, boolean optional, Consumer<String> consumer) {
+            List<String> imported = new ArrayList<>();
+            boolean isFolder = location.endsWith("/");
+            List<String> prefixes = isFolder
+                    ? getSearchNames().stream().map(name -> location + name).collect(Collectors.toList())
+                    : Collections.singletonList(StringUtils.stripFilenameExtension(location));
+            String extension = isFolder || StringUtils.getFilenameExtension(location) == null
+                    ? FILE_EXTENSION : "." + StringUtils.getFilenameExtension(location);
+            for (String profile : environment.getActiveProfiles()) {
+                prefixes.forEach(prefix -> imported.add(prefix + "-" + profile + extension));
+            }
+            if (isFolder) {
+                prefixes.forEach(prefix -> imported.add(prefix + FILE_EXTENSION));
+            } else {
+                imported.add(location);
+                if (!optional) {
+                    requiredLocations.add(location);
+                }
+            }
+            imported.forEach(consumer);
+        }
+
+        private void collect(String prefix, String profile, Consumer<String> consumer) {
             if (profile != null) {
-                profileSpecificFile = prefix + "-" + profile + FILE_EXTENSION;
+                consumer.accept(prefix + "-" + profile + FILE_EXTENSION);
             } else {
-                profileSpecificFile = prefix + FILE_EXTENSION;
+                consumer.accept(prefix + FILE_EXTENSION);
+            }
+        }
+
+        /**
+         * @return the Vault file at the given location, or null if it does not exist
+         */
+        private Resource resolve(String location, AnsibleVaultTimings timings) {
+            long time = System.nanoTime();
+            Resource resource = this.resourceLoader.getResource(location);
+            boolean exists = resource != null && locationIndex.mayExist(location) && resource.exists();
+            timings.lap(Phase.RESOLVE, time);
+            if (!exists) {
+                report.record(location, false, timings);
+                if (requiredLocations.contains(location)) {
+                    throw new IllegalStateException("imported vault file not found: " + location
+                            + " (prefix it with '" + OPTIONAL_PREFIX + "' if it may be missing)");
+                }
+                return null;
             }
+            return resource;
+        }
 
-            Resource resource = this.resourceLoader.getResource(profileSpecificFile);
-            if (resource != null && resource.exists()) {
-                loadVault(resource, consumer);
+        private List<PropertySource<?>> load(String location) {
+            AnsibleVaultTimings timings = new AnsibleVaultTimings();
+            Resource resource = resolve(location, timings);
+            if (resource != null) {
+                List<PropertySource<?>> propertySources = loadVault(resource, vaultPasswordSupplier, timings);
+                loadedVaults.put(resource, getPropertySourceNames(propertySources));
+                return propertySources;
             }
+            return Collections.emptyList();
         }
 
-        private void loadVault(Resource resource, Consumer<? super PropertySource> consumer) {
-            final String propertySourceName = "vault: [" + resource.toString() + "]";
+        private List<PropertySource<?>> loadLazily(List<String> candidates) {
+            List<PropertySource<?>> propertySources = new ArrayList<>();
+            candidates.forEach(candidate -> {
+                AnsibleVaultTimings timings = new AnsibleVaultTimings();
+                Resource resource = resolve(candidate, timings);
+                if (resource != null) {
+                    AnsibleVaultManifest manifest = AnsibleVaultManifest.find(resource);
+                    if (manifest == null) {
+                        // without a manifest, every property Spring Boot looks up might be in the Vault
+                        List<PropertySource<?>> loaded = loadVault(resource, vaultPasswordSupplier, timings);
+                        loadedVaults.put(resource, getPropertySourceNames(loaded));
+                        propertySources.addAll(loaded);
+                        return;
+                    }
+                    report.record(resource.getDescription(), true, timings);
+                    PropertySource<?> propertySource = createLazyPropertySource(resource, manifest);
+                    loadedVaults.put(resource, Collections.singletonList(propertySource.getName()));
+                    propertySources.add(propertySource);
+                }
+            });
+            return propertySources;
+        }
+
+        private PropertySource<?> createLazyPropertySource(Resource resource, AnsibleVaultManifest manifest) {
+            return new AnsibleVaultLazyPropertySource(getPropertySourceName(resource), resource, this::loadVaultOnDemand, manifest);
+        }
+
+        private List<PropertySource<?>> loadVaultOnDemand(Resource resource) {
+            return loadVault(resource, onDemandPasswordSupplier, new AnsibleVaultTimings());
+        }
+
+        private List<PropertySource<?>> loadSequentially(List<String> candidates) {
+            List<PropertySource<?>> propertySources = new ArrayList<>();
+            candidates.forEach(candidate -> propertySources.addAll(load(candidate)));
+            return propertySources;
+        }
+
+        /**
+         * Resolve and decrypt all candidate files at once, but keep the results in the order of the candidates. The
+         * first failure cancels all pending work.
+         */
+        private List<PropertySource<?>> loadConcurrently(List<String> candidates) {
+            int threads = Math.min(candidates.size(), Runtime.getRuntime().availableProcessors());
+            if (threads <= 1) {
+                return loadSequentially(candidates);
+            }
+
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ansible-vault-");
+            threadFactory.setDaemon(true);
+            ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
             try {
-                yamlLoader.load(propertySourceName, new AnsibleVaultResource(resource, vaultPasswordSupplier.get())).forEach(consumer::accept);
+                CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+                List<List<PropertySource<?>>> results = new ArrayList<>(Collections.nCopies(candidates.size(), null));
+                for (int i = 0; i < candidates.size(); i++) {
+                    final int index = i;
+                    completionService.submit(() -> {
+                        results.set(index, load(candidates.get(index)));
+                        return index;
+                    });
+                }
+
+                for (int i = 0; i < candidates.size(); i++) {
+                    completionService.take().get();
+                }
+
+                List<PropertySource<?>> propertySources = new ArrayList<>();
+                results.forEach(propertySources::addAll);
+                return propertySources;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while loading vault files", e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * The time spent parsing is what remains of loading the Vault after reading and decrypting it.
+         */
+        private List<PropertySource<?>> loadVault(Resource resource, PasswordSupplier passwordSupplier, AnsibleVaultTimings timings) {
+            final String propertySourceName = getPropertySourceName(resource);
+            try {
+                AnsibleVaultResource vaultResource = new AnsibleVaultResource(resource, passwordSupplier, timings);
+                long recorded = timings.getTotal().toNanos();
+                long time = System.nanoTime();
+                List<PropertySource<?>> propertySources = environment.getProperty(VAULT_COMPACT_PROPERTY, Boolean.class, true)
+                        ? AnsibleVaultYamlParser.load(propertySourceName, resource, vaultResource, yamlLoader)
+                        : yamlLoader.load(propertySourceName, vaultResource);
+                long elapsed = System.nanoTime() - time;
+                timings.add(Phase.PARSE, elapsed - (timings.getTotal().toNanos() - recorded));
+                report.record(resource.getDescription(), true, timings);
+                return propertySources;
             } catch (Exception e) {
                 throw new RuntimeException("unable to load " + propertySourceName + ": " + e.getMessage(), e);
             }
         }
 
+        private List<String> getPropertySourceNames(List<PropertySource<?>> propertySources) {
+            return propertySources.stream().map(PropertySource::getName).collect(Collectors.toList());
+        }
+
+        private String getPropertySourceName(Resource resource) {
+            return "vault: [" + resource.toString() + "]";
+        }
+
+        /**
+         * @return the Vault files imported by 'spring.config.import', in order of precedence, and whether each of them
+         * is optional
+         */
+        private Map<String, Boolean> getImportLocations() {
+            Map<String, Boolean> imports = new LinkedHashMap<>();
+            if (this.environment.containsProperty(CONFIG_IMPORT_PROPERTY)) {
+                for (String value : asResolvedSet(this.environment.getProperty(CONFIG_IMPORT_PROPERTY), null)) {
+                    boolean optional = value.startsWith(OPTIONAL_PREFIX);
+                    String location = optional ? value.substring(OPTIONAL_PREFIX.length()) : value;
+                    if (location.startsWith(IMPORT_PREFIX)) {
+                        location = location.substring(IMPORT_PREFIX.length());
+                        if (!ResourceUtils.isUrl(location)) {
+                            location = ResourceUtils.FILE_URL_PREFIX + StringUtils.cleanPath(location);
+                        }
+                        imports.merge(location, optional, Boolean::logicalAnd);
+                    }
+                }
+            }
+            return imports;
+        }
+
         private Set<String> getSearchNames() {
             if (this.environment.containsProperty(VAULT_NAME_PROPERTY)) {
                 String property = this.environment.getProperty(VAULT_NAME_PROPERTY);
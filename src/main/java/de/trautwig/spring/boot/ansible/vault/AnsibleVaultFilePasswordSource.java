@@ -15,6 +15,7 @@
  */
 package de.trautwig.spring.boot.ansible.vault;
 
+import org.springframework.core.annotation.Order;
 import org.springframework.core.env.Environment;
 
 import java.io.File;
@@ -34,18 +35,36 @@ import java.util.Arrays;
  * <li>Java System property:<br><pre>java -Dansible.vault.secret=@vault.secret ...</pre></li>
  * <li>Command-line argument:<br><pre>java ... --ansible.vault.secret=@config/secrets ...</pre></li>
  * <li>Application Property files</li>
+ * </ul>
+ * The password for a vault-id is taken from the file set using the property 'ansible.vault.secret.&lt;vault-id&gt;'.
+ * <p>
+ * Executable files set using these properties are left to the {@link AnsibleVaultScriptPasswordSource}. The default
+ * file is always read, even if it is executable.
  */
+@Order(200)
 public class AnsibleVaultFilePasswordSource implements AnsibleVaultPasswordSource {
-    private static final String DEFAULT_PASSWORD_FILE = "vault.secret";
+    static final String DEFAULT_PASSWORD_FILE = "vault.secret";
+
+    private final File defaultFile;
+
+    public AnsibleVaultFilePasswordSource() {
+        this(new File(DEFAULT_PASSWORD_FILE));
+    }
+
+    /**
+     * @param defaultFile the file to read if no password file has been set
+     */
+    AnsibleVaultFilePasswordSource(File defaultFile) {
+        this.defaultFile = defaultFile;
+    }
 
     @Override
     public char[] getVaultPassword(Environment environment) {
         String passwordFile = environment.getProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY);
-        if (passwordFile != null && passwordFile.startsWith("@") && passwordFile.length() > 1) {
-            return loadPassword(new File(passwordFile.substring(1)));
+        if (isPasswordFile(passwordFile)) {
+            return loadPasswordUnlessScript(new File(passwordFile.substring(1)));
         }
 
-        File defaultFile = new File(DEFAULT_PASSWORD_FILE);
         if (defaultFile.exists()) {
             return loadPassword(defaultFile);
         }
@@ -53,12 +72,28 @@ public class AnsibleVaultFilePasswordSource implements AnsibleVaultPasswordSourc
         return null;
     }
 
+    @Override
+    public char[] getVaultPassword(Environment environment, String vaultId) {
+        String passwordFile = environment.getProperty(AnsibleVaultEnvironment.getVaultSecretProperty(vaultId));
+        if (isPasswordFile(passwordFile)) {
+            return loadPasswordUnlessScript(new File(passwordFile.substring(1)));
+        }
+        return null;
+    }
+
+    static boolean isPasswordFile(String property) {
+        return property != null && property.startsWith("@") && property.length() > 1;
+    }
+
+    private char[] loadPasswordUnlessScript(File passwordFile) {
+        return AnsibleVaultScriptPasswordSource.isScript(passwordFile) ? null : loadPassword(passwordFile);
+    }
+
     public char[] loadPassword(File passwordFile) {
         try {
             byte[] passwordBytes = Files.readAllBytes(passwordFile.toPath());
             try {
-                CharBuffer password = Charset.defaultCharset().decode(trim(passwordBytes));
-                return password.length() == 0 ? null : password.array();
+                return decodePassword(passwordBytes, passwordBytes.length);
             } finally {
                 Arrays.fill(passwordBytes, (byte) 0x00);
             }
@@ -67,22 +102,30 @@ public class AnsibleVaultFilePasswordSource implements AnsibleVaultPasswordSourc
         }
     }
 
-    private ByteBuffer trim(byte[] data) {
-        int start = 0;
-        for (; start < data.length; start++) {
-            if (data[start] > ' ') {
-                break;
-            }
+    /**
+     * Decode a password, ignoring leading and trailing whitespace like a trailing line break
+     *
+     * @return the password, or null if it is empty
+     */
+    static char[] decodePassword(byte[] data, int length) {
+        CharBuffer decoded = Charset.defaultCharset().decode(trim(data, length));
+        try {
+            // the decoded buffer may be larger than the password
+            return decoded.remaining() == 0 ? null : Arrays.copyOfRange(decoded.array(), decoded.position(), decoded.limit());
+        } finally {
+            Arrays.fill(decoded.array(), '\0');
         }
+    }
 
-        int end = data.length-1;
-        for (; end >= start; end--) {
-            if (data[end] > ' ') {
-                end++;
-                break;
-            }
+    private static ByteBuffer trim(byte[] data, int length) {
+        int start = 0;
+        while (start < length && (data[start] & 0xFF) <= ' ') {
+            start++;
         }
-
-        return ByteBuffer.wrap(data, start, end-start);
+        int end = length;
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return ByteBuffer.wrap(data, start, end - start);
     }
 }
@@ -0,0 +1,93 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * {@link org.springframework.core.env.PropertySource} for a YAML document which contains single values encrypted with
+ * "ansible-vault encrypt_string", i.e. scalars tagged with '!vault'. Each encrypted value is only decrypted when it is
+ * requested for the first time; values that are never requested are never decrypted.
+ * <p>
+ * The property source is created by the {@link AnsibleVaultYamlPropertySourceLoader} before the Vault password is
+ * known. Encrypted values can only be read once the {@link AnsibleVaultEnvironment} has set the decryptor.
+ */
+public class AnsibleVaultInlinePropertySource extends MapPropertySource {
+    private static final String VAULT_PROPERTY_PREFIX = "ansible.vault.";
+
+    private volatile Function<String, String> decryptor;
+
+    public AnsibleVaultInlinePropertySource(String name, Map<String, Object> source) {
+        super(name, source);
+    }
+
+    /**
+     * @param decryptor decrypts the text of an inline Vault
+     */
+    void setDecryptor(Function<String, String> decryptor) {
+        this.decryptor = decryptor;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        Object value = super.getProperty(name);
+        if (value instanceof EncryptedValue) {
+            if (name.startsWith(VAULT_PROPERTY_PREFIX)) {
+                // the password cannot be looked up while decrypting the password
+                return null;
+            }
+            return ((EncryptedValue) value).decrypt(name, this.decryptor);
+        }
+        return value;
+    }
+
+    /**
+     * The text of an inline Vault, which is replaced by the plaintext once it has been decrypted
+     */
+    public static final class EncryptedValue {
+        private final String vaultText;
+        private volatile String plaintext;
+
+        EncryptedValue(String vaultText) {
+            this.vaultText = vaultText;
+        }
+
+        private synchronized String decrypt(String name, Function<String, String> decryptor) {
+            if (plaintext == null) {
+                if (decryptor == null) {
+                    throw new IllegalStateException("property '" + name + "' is encrypted and cannot be read before the vault password is known");
+                }
+                plaintext = decryptor.apply(vaultText);
+            }
+            return plaintext;
+        }
+
+        /**
+         * @return true if the value has already been decrypted
+         */
+        public boolean isDecrypted() {
+            return plaintext != null;
+        }
+
+        @Override
+        public String toString() {
+            return "******";
+        }
+    }
+}
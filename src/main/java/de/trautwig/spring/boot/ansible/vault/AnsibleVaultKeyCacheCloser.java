@@ -0,0 +1,72 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultKeyCache;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultPersistentKeyCache;
+import org.springframework.boot.context.event.ApplicationFailedEvent;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+
+/**
+ * Zeroizes the keys derived from the Vault passwords once the application context is closed, or has failed to start.
+ * Lazily loaded and watched Vaults still need the keys while the context is running, so they cannot be wiped right
+ * after the Vault files have been loaded.
+ */
+class AnsibleVaultKeyCacheCloser implements ApplicationContextInitializer<ConfigurableApplicationContext>, ApplicationListener<ApplicationEvent> {
+    private final AnsibleVaultKeyCache keyCache;
+    private final AnsibleVaultPersistentKeyCache persistentKeyCache;
+
+    private ConfigurableApplicationContext context;
+
+    /**
+     * @param keyCache           the in-memory cache to clear
+     * @param persistentKeyCache the persistent cache attached to it, or null
+     */
+    AnsibleVaultKeyCacheCloser(AnsibleVaultKeyCache keyCache, AnsibleVaultPersistentKeyCache persistentKeyCache) {
+        this.keyCache = keyCache;
+        this.persistentKeyCache = persistentKeyCache;
+    }
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        this.context = context;
+        context.addApplicationListener(this);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextClosedEvent && ((ContextClosedEvent) event).getApplicationContext() == this.context) {
+            close();
+        } else if (event instanceof ApplicationFailedEvent) {
+            close();
+        }
+    }
+
+    void close() {
+        if (persistentKeyCache != null) {
+            // another application may have attached its own cache in the meantime
+            if (keyCache.getPersistentCache() == persistentKeyCache) {
+                keyCache.setPersistentCache(null);
+            }
+            persistentKeyCache.close();
+        }
+        keyCache.close();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * {@link PropertySource} that defers decrypting an Ansible Vault until one of its properties is requested for the first
+ * time. Until then, only the location of the Vault and its {@link AnsibleVaultManifest} are known, and neither the
+ * password nor the keys are needed. The manifest answers which properties exist, so that looking up any other property,
+ * or enumerating the property names for relaxed binding, does not decrypt the Vault. Properties named 'ansible.vault.*'
+ * are never looked up in a Vault.
+ * <p>
+ * The Vault is decrypted at most once, even if it is accessed concurrently. If decrypting fails, the failure is
+ * reported to the caller and decrypting is attempted again on the next access.
+ */
+public class AnsibleVaultLazyPropertySource extends EnumerablePropertySource<Resource> {
+    private static final String VAULT_PROPERTY_PREFIX = "ansible.vault.";
+
+    private final Function<Resource, List<PropertySource<?>>> loader;
+    private final AnsibleVaultManifest manifest;
+    private volatile List<PropertySource<?>> delegates;
+    private boolean loading;
+
+    /**
+     * @param name     the name of this property source
+     * @param resource the encrypted Vault
+     * @param loader   decrypts the Vault and returns its documents, in order of precedence
+     * @param manifest the names of the properties in the Vault
+     */
+    public AnsibleVaultLazyPropertySource(String name, Resource resource, Function<Resource, List<PropertySource<?>>> loader,
+                                          AnsibleVaultManifest manifest) {
+        super(name, resource);
+        Assert.notNull(manifest, "a lazily decrypted Vault needs a manifest");
+        this.loader = loader;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return manifest.getPropertyNames().stream()
+                .filter(name -> !name.startsWith(VAULT_PROPERTY_PREFIX))
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public boolean containsProperty(String name) {
+        // a Vault cannot configure how Vaults are decrypted, so do not decrypt just to find out
+        return !name.startsWith(VAULT_PROPERTY_PREFIX) && manifest.containsProperty(name);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        if (!containsProperty(name)) {
+            return null;
+        }
+        for (PropertySource<?> delegate : getDelegates()) {
+            Object value = delegate.getProperty(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the Vault has already been decrypted
+     */
+    public boolean isLoaded() {
+        return delegates != null;
+    }
+
+    private List<PropertySource<?>> getDelegates() {
+        List<PropertySource<?>> result = this.delegates;
+        if (result == null) {
+            synchronized (this) {
+                result = this.delegates;
+                if (result == null) {
+                    if (loading) {
+                        // looking up the password while loading must not find this property source again
+                        return Collections.emptyList();
+                    }
+                    loading = true;
+                    try {
+                        result = loader.apply(getSource());
+                        this.delegates = result;
+                    } finally {
+                        loading = false;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
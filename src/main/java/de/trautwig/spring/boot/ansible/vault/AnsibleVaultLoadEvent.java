@@ -0,0 +1,33 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+
+/**
+ * Replaces the Java Flight Recorder event for loading a single Vault file on Java 8, where the JFR API cannot be
+ * compiled against. The event itself is in 'src/main/java11', and is loaded from the multi-release jar on Java 11 and
+ * later. It is only compiled when building with JDK 11 or later, see the 'java11' profile.
+ */
+final class AnsibleVaultLoadEvent {
+
+    private AnsibleVaultLoadEvent() {
+    }
+
+    static void commit(String location, boolean found, AnsibleVaultTimings timings) {
+        // Java Flight Recorder events are only recorded on Java 11 and later
+    }
+}
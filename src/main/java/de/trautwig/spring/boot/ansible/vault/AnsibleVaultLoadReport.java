@@ -0,0 +1,211 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultPersistentKeyCache;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings.Phase;
+import org.apache.commons.logging.Log;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.logging.DeferredLog;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each Vault file took to load, broken down by {@link Phase}. There is one entry for each candidate
+ * location that has been probed, and one more each time a Vault is decrypted lazily or reloaded.
+ * <p>
+ * Each entry is logged at debug level and, if Java Flight Recorder is available on Java 11 or later, committed as a
+ * JFR event. Since the Vaults are loaded before logging has been initialized, log output is deferred until the
+ * application context is initialized. The report is then registered as a bean, so that the timings can be exported
+ * to a metrics registry.
+ * <p>
+ * The time each {@link AnsibleVaultPasswordSource} took to answer is recorded as well.
+ */
+public class AnsibleVaultLoadReport implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+    public static final String BEAN_NAME = "ansibleVaultLoadReport";
+
+    private static final boolean JFR_PRESENT = ClassUtils.isPresent("jdk.jfr.Event", AnsibleVaultLoadReport.class.getClassLoader());
+
+    private final List<Entry> entries = new CopyOnWriteArrayList<>();
+    private final List<PasswordSourceEntry> passwordSourceEntries = new CopyOnWriteArrayList<>();
+    private volatile Log logger = new DeferredLog();
+
+    void record(String location, boolean found, AnsibleVaultTimings timings) {
+        entries.add(new Entry(location, found, timings));
+        if (logger.isDebugEnabled()) {
+            logger.debug((found ? "loaded vault: [" : "vault not found: [") + location + "] in " + timings);
+        }
+        if (JFR_PRESENT) {
+            AnsibleVaultLoadEvent.commit(location, found, timings);
+        }
+    }
+
+    void logSummary() {
+        if (logger.isDebugEnabled()) {
+            long found = entries.stream().filter(Entry::isFound).count();
+            logger.debug("loaded " + found + " vault(s) from " + entries.size() + " location(s) in " + getTotals());
+        }
+    }
+
+    void recordPasswordSource(String source, String vaultId, PasswordSourceOutcome outcome, long nanos) {
+        passwordSourceEntries.add(new PasswordSourceEntry(source, vaultId, outcome, nanos));
+        if (logger.isDebugEnabled()) {
+            logger.debug("vault password source: [" + source + "]" + (vaultId != null ? " for vault-id '" + vaultId + "'" : "")
+                    + ": " + outcome.name().toLowerCase().replace('_', ' ') + " in " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+        }
+    }
+
+    void recordKeyCache(AnsibleVaultPersistentKeyCache keyCache) {
+        IOException failure = keyCache.getLastWriteFailure();
+        if (failure != null) {
+            logger.warn("unable to write vault key cache: " + failure.getMessage());
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("vault key cache: " + keyCache.getHitCount() + " hit(s), " + keyCache.getMissCount() + " miss(es)");
+        }
+    }
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+        if (!beanFactory.containsSingleton(BEAN_NAME)) {
+            beanFactory.registerSingleton(BEAN_NAME, this);
+        }
+        this.logger = DeferredLog.replay(this.logger, AnsibleVaultLoadReport.class);
+    }
+
+    /**
+     * @return the timings of each Vault file, in the order they have been recorded
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return the time each password source took, in the order the sources have answered
+     */
+    public List<PasswordSourceEntry> getPasswordSourceEntries() {
+        return Collections.unmodifiableList(passwordSourceEntries);
+    }
+
+    /**
+     * @return the time spent in each phase, summed over all Vault files
+     */
+    public AnsibleVaultTimings getTotals() {
+        AnsibleVaultTimings totals = new AnsibleVaultTimings();
+        for (Entry entry : entries) {
+            for (Phase phase : Phase.values()) {
+                totals.add(phase, entry.getTimings().getNanos(phase));
+            }
+        }
+        return totals;
+    }
+
+    public static final class Entry {
+        private final String location;
+        private final boolean found;
+        private final AnsibleVaultTimings timings;
+
+        Entry(String location, boolean found, AnsibleVaultTimings timings) {
+            this.location = location;
+            this.found = found;
+            this.timings = timings;
+        }
+
+        /**
+         * @return the location of the Vault file
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * @return false if there was no Vault file at this location
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        public AnsibleVaultTimings getTimings() {
+            return timings;
+        }
+    }
+
+    public enum PasswordSourceOutcome {
+        /**
+         * The source knew the password
+         */
+        FOUND,
+        /**
+         * The source did not know the password
+         */
+        NOT_FOUND,
+        /**
+         * The source threw an exception
+         */
+        FAILED,
+        /**
+         * The source did not answer within 'ansible.vault.secret-timeout', and was skipped
+         */
+        TIMED_OUT
+    }
+
+    public static final class PasswordSourceEntry {
+        private final String source;
+        private final String vaultId;
+        private final PasswordSourceOutcome outcome;
+        private final long nanos;
+
+        PasswordSourceEntry(String source, String vaultId, PasswordSourceOutcome outcome, long nanos) {
+            this.source = source;
+            this.vaultId = vaultId;
+            this.outcome = outcome;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the class name of the password source
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return the vault-id the password has been asked for, or null for the default password
+         */
+        public String getVaultId() {
+            return vaultId;
+        }
+
+        public PasswordSourceOutcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the time until the source answered, or until it was skipped
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
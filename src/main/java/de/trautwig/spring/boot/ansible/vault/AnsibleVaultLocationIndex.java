@@ -0,0 +1,118 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.ResourceUtils;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Lists the Vault files in each search location once, so that the candidate files of all profiles can be matched in
+ * memory instead of probing the file system for each of them, which gets expensive with many profiles.
+ * <p>
+ * Only 'file:' directories with at least {@link #MIN_CANDIDATES} candidates are listed, since a single candidate is
+ * probed as quickly as its directory is listed. Classpath locations are always probed: a jar built without directory
+ * entries lists nothing for any of its directories, so a listing of the classpath cannot prove that a candidate does
+ * not exist. The index can only rule out candidates: a listed file is still probed before it is loaded.
+ */
+class AnsibleVaultLocationIndex {
+    static final int MIN_CANDIDATES = 2;
+
+    private static final Pattern PLAIN_FILE_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final ResourcePatternResolver resolver;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final Map<String, Set<String>> fileNames = new HashMap<>();
+    private final String fileExtension;
+
+    /**
+     * @param candidates    the locations of all candidate Vault files
+     * @param fileExtension the file extension of all Vault files
+     */
+    AnsibleVaultLocationIndex(ResourceLoader resourceLoader, Collection<String> candidates, String fileExtension) {
+        this.resolver = ResourcePatternUtils.getResourcePatternResolver(resourceLoader);
+        this.fileExtension = fileExtension;
+        Map<String, Long> candidatesPerDirectory = candidates.stream().map(this::getDirectory).filter(directory -> directory != null)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        candidatesPerDirectory.forEach((directory, count) -> {
+            if (count >= MIN_CANDIDATES) {
+                Set<String> names = list(directory);
+                if (names != null) {
+                    fileNames.put(directory, names);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return false if the candidate is known not to exist, true if it has to be probed
+     */
+    boolean mayExist(String candidate) {
+        String directory = getDirectory(candidate);
+        Set<String> names = directory != null ? fileNames.get(directory) : null;
+        return names == null || names.contains(candidate.substring(directory.length()));
+    }
+
+    /**
+     * @return the directory of a candidate which can be listed, or null if it has to be probed, e.g. because it has
+     * another file extension or is on the classpath
+     */
+    private String getDirectory(String candidate) {
+        if (!candidate.startsWith(ResourceUtils.FILE_URL_PREFIX)) {
+            return null;
+        }
+        int separator = candidate.lastIndexOf('/');
+        if (separator < 0) {
+            return null;
+        }
+        String directory = candidate.substring(0, separator + 1);
+        String name = candidate.substring(separator + 1);
+        // names are compared to the file names of URLs, which may be encoded
+        if (pathMatcher.isPattern(directory) || !PLAIN_FILE_NAME.matcher(name).matches() || !name.endsWith(fileExtension)) {
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * @return the names of all Vault files in a directory, or null if the directory cannot be listed
+     */
+    private Set<String> list(String directory) {
+        try {
+            Set<String> names = new HashSet<>();
+            for (Resource resource : resolver.getResources(directory + "*" + fileExtension)) {
+                names.add(resource.getFilename());
+            }
+            return names;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
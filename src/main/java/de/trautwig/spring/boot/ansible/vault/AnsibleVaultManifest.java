@@ -0,0 +1,182 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+import de.trautwig.spring.boot.ansible.vault.io.Hexlify;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * The names of the properties in a Vault, stored in plain text next to it, e.g. 'vault.yml.manifest'. It never contains
+ * any values. A manifest is created at build time by the Maven plugin, which thereby also verifies that the Vault can be
+ * decrypted.
+ * <p>
+ * When Vaults are loaded lazily, a Vault with a manifest is only decrypted when one of the properties listed in the
+ * manifest is requested. The manifest records the SHA-256 digest of the Vault, and is ignored once the Vault has been
+ * modified.
+ */
+public final class AnsibleVaultManifest {
+    public static final String FILE_SUFFIX = ".manifest";
+
+    private static final String HEADER = "# Ansible Vault manifest: property names only, never values";
+    private static final String DIGEST_PREFIX = "sha256:";
+
+    private final byte[] digest;
+    private final Set<String> propertyNames;
+
+    private AnsibleVaultManifest(byte[] digest, Set<String> propertyNames) {
+        this.digest = digest;
+        this.propertyNames = Collections.unmodifiableSet(propertyNames);
+    }
+
+    /**
+     * Decrypt the Vault, and collect the names of its properties. The decrypted values are zeroized where possible.
+     *
+     * @param passwords returns the password for the vault-id of the Vault, which is null for Vaults in format 1.1
+     * @throws IOException if the Vault cannot be read, the password is wrong or the Vault has been tampered with
+     */
+    public static AnsibleVaultManifest create(Resource vault, Function<String, char[]> passwords) throws IOException {
+        AnsibleVaultResource decrypted = new AnsibleVaultResource(vault, passwords, new AnsibleVaultTimings());
+        List<PropertySource<?>> propertySources = AnsibleVaultYamlParser.load(vault.getDescription(), vault, decrypted, new YamlPropertySourceLoader());
+        Set<String> propertyNames = new TreeSet<>();
+        for (PropertySource<?> propertySource : propertySources) {
+            if (propertySource instanceof EnumerablePropertySource) {
+                propertyNames.addAll(Arrays.asList(((EnumerablePropertySource<?>) propertySource).getPropertyNames()));
+            }
+            if (propertySource instanceof AnsibleVaultPropertySource) {
+                ((AnsibleVaultPropertySource) propertySource).close();
+            }
+        }
+        return new AnsibleVaultManifest(digest(vault), propertyNames);
+    }
+
+    /**
+     * @return the manifest next to the Vault, or null if there is none, or it does not belong to the current contents
+     * of the Vault
+     */
+    static AnsibleVaultManifest find(Resource vault) {
+        try {
+            Resource resource = vault.createRelative(vault.getFilename() + FILE_SUFFIX);
+            if (!resource.exists()) {
+                return null;
+            }
+            AnsibleVaultManifest manifest;
+            try (InputStream in = resource.getInputStream()) {
+                manifest = read(in);
+            }
+            return manifest.isFor(vault) ? manifest : null;
+        } catch (IOException | RuntimeException e) {
+            // without a usable manifest, the Vault is simply decrypted
+            return null;
+        }
+    }
+
+    public static AnsibleVaultManifest read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        byte[] digest = null;
+        Set<String> propertyNames = new TreeSet<>();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (digest == null) {
+                if (!line.startsWith(DIGEST_PREFIX)) {
+                    throw new IOException("Vault digest expected");
+                }
+                try {
+                    digest = Hexlify.unhexlify(line.substring(DIGEST_PREFIX.length()));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("invalid Vault digest", e);
+                }
+            } else {
+                propertyNames.add(line);
+            }
+        }
+        if (digest == null) {
+            throw new IOException("Vault digest expected");
+        }
+        return new AnsibleVaultManifest(digest, propertyNames);
+    }
+
+    /**
+     * @throws IOException if a property name spans several lines, and cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        for (String propertyName : propertyNames) {
+            if (propertyName.isEmpty() || propertyName.startsWith("#") || propertyName.indexOf('\n') >= 0 || propertyName.indexOf('\r') >= 0) {
+                throw new IOException("property name cannot be written to manifest: " + propertyName);
+            }
+        }
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(HEADER + "\n");
+        writer.write(DIGEST_PREFIX + new String(Hexlify.hexlify(digest, 0, digest.length)) + "\n");
+        for (String propertyName : propertyNames) {
+            writer.write(propertyName + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return true if the manifest has been created from the current contents of the Vault
+     */
+    public boolean isFor(Resource vault) throws IOException {
+        return MessageDigest.isEqual(digest, digest(vault));
+    }
+
+    public boolean containsProperty(String name) {
+        return propertyNames.contains(name);
+    }
+
+    public Set<String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    private static byte[] digest(Resource vault) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = vault.getInputStream()) {
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+}
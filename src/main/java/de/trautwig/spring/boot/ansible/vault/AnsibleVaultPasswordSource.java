@@ -18,7 +18,9 @@ package de.trautwig.spring.boot.ansible.vault;
 import org.springframework.core.env.Environment;
 
 /**
- * Strategy to determine the password used for encrypting the Ansible Vault
+ * Strategy to determine the password used for encrypting the Ansible Vault. Implementations are registered in
+ * 'META-INF/spring.factories', and asked in the order of their {@link org.springframework.core.annotation.Order}
+ * annotation: the built-in sources for scripts, files and properties have the orders 100, 200 and 300.
  * @see AnsibleVaultFilePasswordSource
  * @see AnsibleVaultPropertyPasswordSource
  */
@@ -26,4 +28,14 @@ public interface AnsibleVaultPasswordSource {
 
     char[] getVaultPassword(Environment environment);
 
+    /**
+     * Determine the password for Vaults labeled with a vault-id (format 1.2). It is only looked up once a Vault with
+     * this vault-id is loaded. If no source knows a password for the vault-id, the default password is used.
+     *
+     * @return the password, or null if this source has no password specific to the vault-id
+     */
+    default char[] getVaultPassword(Environment environment, String vaultId) {
+        return null;
+    }
+
 }
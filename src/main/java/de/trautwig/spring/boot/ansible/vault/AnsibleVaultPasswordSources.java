@@ -0,0 +1,182 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultLoadReport.PasswordSourceOutcome;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Asks the registered {@link AnsibleVaultPasswordSource}s for a password, in the order of their {@link Order}
+ * annotations. The sources are discovered once per class loader, instead of being instantiated again for every lookup.
+ * <p>
+ * By default, the sources are asked one after another until one of them knows the password. If the property
+ * 'ansible.vault.secret-concurrent' is set to true, all sources are asked at once, so that a slow source, e.g. a
+ * password script, does not hold up the others. The answer of the first source in order still wins. A source which
+ * has not answered within the time set by 'ansible.vault.secret-timeout' is skipped.
+ * <p>
+ * The time each source took is recorded in the {@link AnsibleVaultLoadReport}.
+ */
+final class AnsibleVaultPasswordSources {
+    private static final long DEFAULT_TIMEOUT = 30_000;
+    private static final Map<ClassLoader, List<AnsibleVaultPasswordSource>> SOURCES = new ConcurrentReferenceHashMap<>();
+
+    private final Environment environment;
+    private final List<AnsibleVaultPasswordSource> sources;
+    private final AnsibleVaultLoadReport report;
+
+    AnsibleVaultPasswordSources(Environment environment, AnsibleVaultLoadReport report) {
+        this(environment, getSources(AnsibleVaultPasswordSources.class.getClassLoader()), report);
+    }
+
+    AnsibleVaultPasswordSources(Environment environment, List<AnsibleVaultPasswordSource> sources, AnsibleVaultLoadReport report) {
+        this.environment = environment;
+        this.sources = sources;
+        this.report = report;
+    }
+
+    /**
+     * @return the sources registered in 'META-INF/spring.factories', sorted by their order
+     */
+    static List<AnsibleVaultPasswordSource> getSources(ClassLoader classLoader) {
+        return SOURCES.computeIfAbsent(classLoader, loader ->
+                Collections.unmodifiableList(SpringFactoriesLoader.loadFactories(AnsibleVaultPasswordSource.class, loader)));
+    }
+
+    /**
+     * @param vaultId the vault-id to determine the password for, or null for the default password
+     * @return the password of the first source which knows it, or null
+     */
+    char[] getPassword(String vaultId) {
+        Function<AnsibleVaultPasswordSource, char[]> query = vaultId == null
+                ? source -> source.getVaultPassword(environment)
+                : source -> source.getVaultPassword(environment, vaultId);
+        if (sources.size() > 1 && environment.getProperty(AnsibleVaultEnvironment.VAULT_SECRET_CONCURRENT_PROPERTY, Boolean.class, false)) {
+            return queryConcurrently(vaultId, query);
+        }
+        return querySequentially(vaultId, query);
+    }
+
+    private char[] querySequentially(String vaultId, Function<AnsibleVaultPasswordSource, char[]> query) {
+        for (AnsibleVaultPasswordSource source : sources) {
+            long start = System.nanoTime();
+            char[] password;
+            try {
+                password = query.apply(source);
+            } catch (RuntimeException e) {
+                record(source, vaultId, PasswordSourceOutcome.FAILED, start);
+                throw e;
+            }
+            record(source, vaultId, password != null ? PasswordSourceOutcome.FOUND : PasswordSourceOutcome.NOT_FOUND, start);
+            if (password != null) {
+                return password;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ask every source on its own thread, then take the answers in order. Each source is recorded once, either by its
+     * thread when it answers, or as timed out when the deadline has passed. Answers which are not used are zeroized.
+     */
+    private char[] queryConcurrently(String vaultId, Function<AnsibleVaultPasswordSource, char[]> query) {
+        long timeout = environment.getProperty(AnsibleVaultEnvironment.VAULT_SECRET_TIMEOUT_PROPERTY, Long.class, DEFAULT_TIMEOUT);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ansible-vault-password-source-");
+        threadFactory.setDaemon(true);
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<CompletableFuture<char[]>> answers = new ArrayList<>(sources.size());
+        for (AnsibleVaultPasswordSource source : sources) {
+            CompletableFuture<char[]> answer = new CompletableFuture<>();
+            answers.add(answer);
+            threadFactory.newThread(() -> {
+                try {
+                    char[] password = query.apply(source);
+                    if (answer.complete(password)) {
+                        record(source, vaultId, password != null ? PasswordSourceOutcome.FOUND : PasswordSourceOutcome.NOT_FOUND, start);
+                    } else if (password != null) {
+                        Arrays.fill(password, '\0');
+                    }
+                } catch (RuntimeException e) {
+                    if (answer.completeExceptionally(e)) {
+                        record(source, vaultId, PasswordSourceOutcome.FAILED, start);
+                    }
+                }
+            }).start();
+        }
+
+        try {
+            for (int i = 0; i < answers.size(); i++) {
+                if (!awaitAnswer(answers.get(i), deadline)) {
+                    record(sources.get(i), vaultId, PasswordSourceOutcome.TIMED_OUT, start);
+                } else if (answers.get(i).join() != null) {
+                    discard(answers.subList(i + 1, answers.size()));
+                    return answers.get(i).join();
+                }
+            }
+            return null;
+        } catch (CompletionException e) {
+            discard(answers);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @return false if the source has not answered before the deadline, in which case its answer is discarded
+     */
+    private boolean awaitAnswer(CompletableFuture<char[]> answer, long deadline) {
+        try {
+            answer.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (TimeoutException e) {
+            // the source may still have answered in the meantime
+            return !answer.completeExceptionally(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for vault password sources", e);
+        }
+    }
+
+    private void discard(List<CompletableFuture<char[]>> answers) {
+        answers.forEach(answer -> answer.thenAccept(password -> {
+            if (password != null) {
+                Arrays.fill(password, '\0');
+            }
+        }));
+    }
+
+    private void record(AnsibleVaultPasswordSource source, String vaultId, PasswordSourceOutcome outcome, long start) {
+        report.recordPasswordSource(source.getClass().getName(), vaultId, outcome, System.nanoTime() - start);
+    }
+}
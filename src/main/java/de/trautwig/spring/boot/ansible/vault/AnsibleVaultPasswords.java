@@ -0,0 +1,41 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.env.Environment;
+
+import java.util.function.Function;
+
+/**
+ * The passwords of Vaults outside of a Spring application, e.g. to verify Vaults at build time. Each password is
+ * determined once, from the registered {@link AnsibleVaultPasswordSource}s like when the Vault files are loaded, and
+ * zeroized when this is closed.
+ */
+public interface AnsibleVaultPasswords extends Function<String, char[]>, AutoCloseable {
+
+    /**
+     * Get the password for a vault-id, or the default password for Vaults without vault-id
+     */
+    @Override
+    char[] apply(String vaultId);
+
+    @Override
+    void close();
+
+    static AnsibleVaultPasswords create(Environment environment) {
+        return AnsibleVaultEnvironment.createPasswordSupplier(environment);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The decrypted contents of a Vault, kept outside of the heap in a single buffer. Values are only decoded on request,
+ * and the whole buffer is zeroized once it is closed.
+ */
+final class AnsibleVaultPlaintext implements AutoCloseable {
+    private static final int CHUNK_SIZE = 8192;
+    private static final byte[] ZEROS = new byte[CHUNK_SIZE];
+
+    private ByteBuffer buffer;
+
+    private AnsibleVaultPlaintext(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read the stream until its end. Intermediate buffers are zeroized.
+     */
+    static AnsibleVaultPlaintext read(InputStream in) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * CHUNK_SIZE);
+        try {
+            for (int n; (n = in.read(chunk)) >= 0; ) {
+                if (buffer.remaining() < n) {
+                    ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(2 * buffer.capacity(), buffer.position() + n));
+                    ((Buffer) buffer).flip();
+                    grown.put(buffer);
+                    zeroize(buffer);
+                    buffer = grown;
+                }
+                buffer.put(chunk, 0, n);
+            }
+        } catch (IOException | RuntimeException e) {
+            zeroize(buffer);
+            throw e;
+        } finally {
+            Arrays.fill(chunk, (byte) 0x00);
+        }
+        ((Buffer) buffer).flip();
+        return new AnsibleVaultPlaintext(buffer);
+    }
+
+    /**
+     * @return a read-only view of the contents, which is only valid until this is closed
+     * @throws IllegalStateException once closed
+     */
+    synchronized ByteBuffer contents() {
+        return getBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Decode a range of UTF-8 bytes. The caller should zeroize the result once it is no longer needed.
+     *
+     * @return the characters, or null once closed
+     */
+    synchronized char[] decode(int offset, int length) {
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer range = buffer.duplicate();
+        ((Buffer) range).position(offset).limit(offset + length);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // UTF-8 never decodes to more characters than bytes
+        char[] chars = new char[length];
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.decode(range, out, true);
+        decoder.flush(out);
+        if (out.position() == chars.length) {
+            return chars;
+        }
+        char[] result = Arrays.copyOf(chars, out.position());
+        Arrays.fill(chars, '\0');
+        return result;
+    }
+
+    /**
+     * @return a copy of the whole contents on the heap, for parsers which cannot read from the buffer
+     * @throws IllegalStateException once closed
+     */
+    synchronized byte[] toByteArray() {
+        ByteBuffer buffer = getBuffer();
+        byte[] bytes = new byte[buffer.limit()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private ByteBuffer getBuffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("vault plaintext has been closed");
+        }
+        return buffer;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            zeroize(buffer);
+            buffer = null;
+        }
+    }
+
+    private static void zeroize(ByteBuffer buffer) {
+        ByteBuffer target = buffer.duplicate();
+        ((Buffer) target).clear();
+        while (target.hasRemaining()) {
+            target.put(ZEROS, 0, Math.min(ZEROS.length, target.remaining()));
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package de.trautwig.spring.boot.ansible.vault;
 
+import org.springframework.core.annotation.Order;
 import org.springframework.core.env.Environment;
 
 import java.util.Optional;
@@ -27,7 +28,9 @@ import java.util.Optional;
  * <li>Command-line arguments:<br><pre>java ... --ansible.vault.secret=...</pre></li>
  * <li>Application Property files, but do <strong>NOT</strong> put the file containing the password under Version Control!</li>
  * </ul>
+ * The password for a vault-id is taken from the property 'ansible.vault.secret.&lt;vault-id&gt;'.
  */
+@Order(300)
 public class AnsibleVaultPropertyPasswordSource implements AnsibleVaultPasswordSource {
 
     @Override
@@ -36,4 +39,10 @@ public class AnsibleVaultPropertyPasswordSource implements AnsibleVaultPasswordS
         return Optional.ofNullable(password).map(String::toCharArray).orElse(null);
     }
 
+    @Override
+    public char[] getVaultPassword(Environment environment, String vaultId) {
+        String password = environment.getProperty(AnsibleVaultEnvironment.getVaultSecretProperty(vaultId));
+        return Optional.ofNullable(password).map(String::toCharArray).orElse(null);
+    }
+
 }
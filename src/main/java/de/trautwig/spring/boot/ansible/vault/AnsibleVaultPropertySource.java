@@ -0,0 +1,124 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.io.Resource;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.util.Arrays;
+
+/**
+ * {@link EnumerablePropertySource} for one document of a decrypted Vault, created by {@link AnsibleVaultYamlParser}.
+ * The property names are kept in a sorted index, while the values remain as UTF-8 bytes in the shared
+ * {@link AnsibleVaultPlaintext} of the Vault. A value is only decoded into a {@link String} when it is requested.
+ * <p>
+ * Closing the property source zeroizes the plaintext, which also closes the other documents of the Vault. Properties
+ * are no longer found afterwards.
+ */
+public class AnsibleVaultPropertySource extends EnumerablePropertySource<Resource> implements AutoCloseable {
+    static final byte PLAIN = 0;
+    static final byte SINGLE_QUOTED = 1;
+    static final byte DOUBLE_QUOTED = 2;
+    static final byte EMPTY = 3;
+
+    private static final Resolver RESOLVER = new Resolver();
+
+    private final AnsibleVaultPlaintext plaintext;
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] styles;
+    // plain values of another type than String, which are only constructed once
+    private final Object[] typedValues;
+
+    /**
+     * @param names   the property names in ascending order, without duplicates
+     * @param offsets the position of each value in the plaintext
+     * @param lengths the length of each value in bytes, excluding quotes
+     * @param styles  how each value is written
+     */
+    AnsibleVaultPropertySource(String name, Resource resource, AnsibleVaultPlaintext plaintext,
+                               String[] names, int[] offsets, int[] lengths, byte[] styles) {
+        super(name, resource);
+        this.plaintext = plaintext;
+        this.names = names;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.styles = styles;
+        this.typedValues = new Object[names.length];
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return names.clone();
+    }
+
+    @Override
+    public boolean containsProperty(String name) {
+        return Arrays.binarySearch(names, name) >= 0;
+    }
+
+    /**
+     * Decode the value like {@link org.springframework.boot.env.YamlPropertySourceLoader} does: quoted and plain
+     * values are Strings, unless a plain value denotes another type, e.g. a number. An empty value is an empty String.
+     */
+    @Override
+    public Object getProperty(String name) {
+        int index = Arrays.binarySearch(names, name);
+        if (index < 0) {
+            return null;
+        }
+        if (styles[index] == EMPTY) {
+            return "";
+        }
+        char[] chars = plaintext.decode(offsets[index], lengths[index]);
+        if (chars == null) {
+            return null;
+        }
+        try {
+            return styles[index] == PLAIN ? resolvePlain(index, chars) : AnsibleVaultYamlParser.unquote(chars, styles[index]);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    @Override
+    public void close() {
+        plaintext.close();
+    }
+
+    /**
+     * Values of other types than String are constructed by SnakeYAML on the first request, and kept. They are usually
+     * numbers or booleans, so they are not zeroized on close, but no longer returned.
+     */
+    private Object resolvePlain(int index, char[] chars) {
+        String value = new String(chars);
+        if (RESOLVER.resolve(NodeId.scalar, value, true).equals(Tag.STR)) {
+            return value;
+        }
+        synchronized (typedValues) {
+            if (typedValues[index] == null) {
+                Object resolved = new Yaml().load(value);
+                typedValues[index] = resolved != null ? resolved : "";
+            }
+            return typedValues[index];
+        }
+    }
+}
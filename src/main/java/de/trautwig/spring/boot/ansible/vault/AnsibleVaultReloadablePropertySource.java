@@ -0,0 +1,77 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds all documents of a watched Vault, so that the {@link AnsibleVaultWatcher} can replace them in a single step. A
+ * reader sees either the previous or the reloaded documents, but never a mix of both. The previous documents are not
+ * closed, since they may still be read, and are left to the garbage collector.
+ */
+class AnsibleVaultReloadablePropertySource extends EnumerablePropertySource<Resource> {
+    private volatile List<PropertySource<?>> documents;
+
+    /**
+     * @param documents the documents of the Vault, in order of precedence
+     */
+    AnsibleVaultReloadablePropertySource(String name, Resource resource, List<PropertySource<?>> documents) {
+        super(name, resource);
+        this.documents = documents;
+    }
+
+    List<PropertySource<?>> getDocuments() {
+        return documents;
+    }
+
+    void setDocuments(List<PropertySource<?>> documents) {
+        this.documents = documents;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        for (PropertySource<?> document : this.documents) {
+            Object value = document.getProperty(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsProperty(String name) {
+        return this.documents.stream().anyMatch(document -> document.containsProperty(name));
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (PropertySource<?> document : this.documents) {
+            if (document instanceof EnumerablePropertySource) {
+                names.addAll(Arrays.asList(((EnumerablePropertySource<?>) document).getPropertyNames()));
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+}
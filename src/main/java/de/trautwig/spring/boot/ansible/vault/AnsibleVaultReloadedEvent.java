@@ -0,0 +1,54 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.core.io.Resource;
+
+import java.util.List;
+
+/**
+ * Published by the {@link AnsibleVaultWatcher} after a modified Vault file has been decrypted again and its property
+ * sources have been replaced in the Environment.
+ */
+public class AnsibleVaultReloadedEvent extends ApplicationEvent {
+    private final Resource resource;
+    private final List<String> propertySourceNames;
+
+    public AnsibleVaultReloadedEvent(AnsibleVaultWatcher watcher, Resource resource, List<String> propertySourceNames) {
+        super(watcher);
+        this.resource = resource;
+        this.propertySourceNames = propertySourceNames;
+    }
+
+    public AnsibleVaultWatcher getWatcher() {
+        return (AnsibleVaultWatcher) getSource();
+    }
+
+    /**
+     * @return the Vault file that has been reloaded
+     */
+    public Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * @return the names of the property sources that now hold the properties of the Vault
+     */
+    public List<String> getPropertySourceNames() {
+        return propertySourceNames;
+    }
+}
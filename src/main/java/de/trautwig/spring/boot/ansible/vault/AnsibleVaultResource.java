@@ -16,20 +16,34 @@
 package de.trautwig.spring.boot.ansible.vault;
 
 import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultInputStream;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
 import org.springframework.core.io.AbstractResource;
 import org.springframework.core.io.Resource;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.GeneralSecurityException;
+import java.util.function.Function;
 
 public class AnsibleVaultResource extends AbstractResource {
+    private static final long STREAMING_THRESHOLD = 1024 * 1024;
+
     private final Resource source;
-    private final char[] password;
+    private final Function<String, char[]> passwords;
+    private final AnsibleVaultTimings timings;
 
     public AnsibleVaultResource(Resource source, char[] password) {
+        this(source, vaultId -> password, new AnsibleVaultTimings());
+    }
+
+    /**
+     * @param passwords returns the password for the vault-id of the Vault, which is null for Vaults in format 1.1
+     * @param timings   records the time spent decrypting the Vault each time it is read
+     */
+    public AnsibleVaultResource(Resource source, Function<String, char[]> passwords, AnsibleVaultTimings timings) {
         this.source = source;
-        this.password = password;
+        this.passwords = passwords;
+        this.timings = timings;
     }
 
     @Override
@@ -40,10 +54,26 @@ public class AnsibleVaultResource extends AbstractResource {
     @Override
     public InputStream getInputStream() throws IOException {
         try {
-            return new AnsibleVaultInputStream(source.getInputStream(), password);
+            if (source.isFile()) {
+                // decoded straight from the file mapped into memory, without copying it into the heap
+                return new AnsibleVaultInputStream(source.getFile(), passwords, timings);
+            }
+            if (source.isOpen() || !isLarge()) {
+                // decrypting in a single pass is faster, but requires buffering the plaintext
+                return new AnsibleVaultInputStream(source.getInputStream(), passwords, timings);
+            }
+            return new AnsibleVaultInputStream(source, passwords, timings);
         } catch (GeneralSecurityException e) {
             throw new IOException(e);
         }
     }
 
+    private boolean isLarge() {
+        try {
+            return source.contentLength() > STREAMING_THRESHOLD;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
 }
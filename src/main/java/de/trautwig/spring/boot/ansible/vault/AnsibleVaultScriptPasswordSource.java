@@ -0,0 +1,217 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Take the Ansible Vault password from the output of an executable script, like 'ansible-vault --vault-password-file'
+ * does. The script is set in the same way as a password file for the {@link AnsibleVaultFilePasswordSource}, e.g.
+ * <pre>java -Dansible.vault.secret=@/usr/local/bin/vault-keyring.sh ...</pre>
+ * and is executed if it is executable, which is only determined on POSIX file systems. The default password file
+ * 'vault.secret' is never executed, since it only has to exist in the working directory to be used.
+ * <p>
+ * Like with Ansible, a script whose name ends with '-client' (ignoring the file extension) is also asked for the
+ * passwords of vault-ids, which are passed as '--vault-id &lt;vault-id&gt;'. If it exits with code 2, it does not know
+ * the vault-id, and the default password is used. The script for a single vault-id can be set using the property
+ * 'ansible.vault.secret.&lt;vault-id&gt;'.
+ * <p>
+ * The script must terminate within the time set by the property 'ansible.vault.secret-timeout' in milliseconds
+ * (default: 30 seconds). Its standard error is passed through, so that it may report problems.
+ */
+@Order(100)
+public class AnsibleVaultScriptPasswordSource implements AnsibleVaultPasswordSource {
+    private static final long DEFAULT_TIMEOUT = 30_000;
+    private static final int MAX_OUTPUT_LENGTH = 64 * 1024;
+    private static final int CLIENT_UNKNOWN_VAULT_ID = 2;
+
+    @Override
+    public char[] getVaultPassword(Environment environment) {
+        File script = getScript(environment.getProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY));
+        return script != null ? run(environment, script, null) : null;
+    }
+
+    @Override
+    public char[] getVaultPassword(Environment environment, String vaultId) {
+        File script = getScript(environment.getProperty(AnsibleVaultEnvironment.getVaultSecretProperty(vaultId)));
+        if (script != null) {
+            return run(environment, script, isClient(script) ? vaultId : null);
+        }
+        File defaultScript = getScript(environment.getProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY));
+        if (defaultScript != null && isClient(defaultScript)) {
+            return run(environment, defaultScript, vaultId);
+        }
+        return null;
+    }
+
+    /**
+     * @return the script set by the property, or null if it is not set or not executable
+     */
+    private File getScript(String property) {
+        if (!AnsibleVaultFilePasswordSource.isPasswordFile(property)) {
+            return null;
+        }
+        File file = new File(property.substring(1));
+        return isScript(file) ? file : null;
+    }
+
+    /**
+     * @return true if the file is executable. On file systems without POSIX permissions, e.g. on Windows, every file
+     * counts as executable, so no file is treated as a script there.
+     */
+    static boolean isScript(File file) {
+        return file.isFile() && Files.isExecutable(file.toPath())
+                && file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    private boolean isClient(File script) {
+        String name = script.getName();
+        int extension = name.lastIndexOf('.');
+        return (extension > 0 ? name.substring(0, extension) : name).endsWith("-client");
+    }
+
+    /**
+     * Run the script and decode its standard output. The output is read on a separate thread, so that the timeout
+     * also applies to a script which does not close its output.
+     *
+     * @param vaultId the vault-id to pass to a client script, or null
+     */
+    private char[] run(Environment environment, File script, String vaultId) {
+        long timeout = environment.getProperty(AnsibleVaultEnvironment.VAULT_SECRET_TIMEOUT_PROPERTY, Long.class, DEFAULT_TIMEOUT);
+        List<String> command = new ArrayList<>();
+        command.add(script.getAbsolutePath());
+        if (vaultId != null) {
+            command.add("--vault-id");
+            command.add(vaultId);
+        }
+
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            throw new RuntimeException("unable to run vault password script: " + script + ": " + e.getMessage(), e);
+        }
+        ScriptOutput output = new ScriptOutput();
+        InputStream stdout = process.getInputStream();
+        FutureTask<Void> reading = new FutureTask<>(() -> {
+            output.readFully(stdout);
+            return null;
+        });
+        Thread reader = new Thread(reading, "ansible-vault-password-script");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException();
+            }
+            reading.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            int exitCode = process.exitValue();
+            if (vaultId != null && exitCode == CLIENT_UNKNOWN_VAULT_ID) {
+                return null;
+            }
+            if (exitCode != 0) {
+                throw new RuntimeException("vault password script " + script + " failed with exit code " + exitCode);
+            }
+            char[] password = output.decode();
+            if (password == null) {
+                throw new RuntimeException("vault password script " + script + " returned an empty password");
+            }
+            return password;
+        } catch (TimeoutException e) {
+            throw new RuntimeException("vault password script " + script + " did not finish within " + timeout + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for vault password script " + script, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("unable to read output of vault password script " + script + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            process.destroyForcibly();
+            output.release();
+        }
+    }
+
+    /**
+     * The standard output of the script, in a buffer which is zeroized when it grows or is released, so that no copies
+     * of the password are left behind. Only the reading thread accesses the buffer until it has finished.
+     */
+    private static final class ScriptOutput {
+        private byte[] buffer = new byte[256];
+        private int length;
+        private boolean finished;
+        private boolean released;
+
+        void readFully(InputStream in) throws IOException {
+            try (InputStream stream = in) {
+                for (int n; (n = stream.read(buffer, length, buffer.length - length)) >= 0; ) {
+                    length += n;
+                    if (length == buffer.length) {
+                        if (buffer.length >= MAX_OUTPUT_LENGTH) {
+                            throw new IOException("more than " + MAX_OUTPUT_LENGTH + " bytes of output");
+                        }
+                        byte[] grown = Arrays.copyOf(buffer, buffer.length * 2);
+                        Arrays.fill(buffer, (byte) 0x00);
+                        buffer = grown;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    finished = true;
+                    if (released) {
+                        clear();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Only call once reading has finished
+         */
+        synchronized char[] decode() {
+            return AnsibleVaultFilePasswordSource.decodePassword(buffer, length);
+        }
+
+        /**
+         * Zeroize the output now, or once the script has closed its output if it is still being read
+         */
+        synchronized void release() {
+            released = true;
+            if (finished) {
+                clear();
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(buffer, (byte) 0x00);
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.event.ApplicationFailedEvent;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Watches the Vault files that have been loaded from the file system, and decrypts a Vault again once it has been
+ * modified. The documents of each watched Vault are held by a single property source in the Environment, so that they
+ * are all replaced in one step once the Vault has been reloaded. Then an {@link AnsibleVaultReloadedEvent} is
+ * published.
+ * <p>
+ * Change events are debounced, so that a file is only reloaded once it has not been modified for a while. A Vault
+ * whose content did not actually change is not decrypted again. If reloading fails, the previous properties are kept.
+ * <p>
+ * The watcher is registered as a bean when the application context is initialized, so that the reload statistics can
+ * be monitored, and is started once the context has been refreshed.
+ */
+public class AnsibleVaultWatcher implements ApplicationContextInitializer<ConfigurableApplicationContext>, ApplicationListener<ApplicationEvent>, Closeable {
+    public static final String BEAN_NAME = "ansibleVaultWatcher";
+
+    private static final Log logger = LogFactory.getLog(AnsibleVaultWatcher.class);
+
+    private final ConfigurableEnvironment environment;
+    private final Function<Resource, List<PropertySource<?>>> loader;
+    private final long delay;
+    private final Map<Path, WatchedVault> vaults = new ConcurrentHashMap<>();
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long lastReloadLatency;
+
+    private ConfigurableApplicationContext context;
+    private WatchService watchService;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param environment the Environment holding the property sources of the Vaults
+     * @param loader      decrypts a Vault and returns its documents, in order of precedence
+     * @param delay       the time in milliseconds a Vault must not have been modified before it is reloaded
+     */
+    AnsibleVaultWatcher(ConfigurableEnvironment environment, Function<Resource, List<PropertySource<?>>> loader, long delay) {
+        this.environment = environment;
+        this.loader = loader;
+        this.delay = delay;
+    }
+
+    /**
+     * Watch a Vault whose documents have been added to the Environment. They are replaced by a single property source.
+     *
+     * @param name                the name of the property source holding the documents of the Vault
+     * @param propertySourceNames the names of the documents in the Environment, in order of precedence
+     */
+    void watch(String name, Resource resource, List<String> propertySourceNames) throws IOException {
+        Path path = resource.getFile().toPath().toAbsolutePath().normalize();
+        byte[] digest = digest(path);
+        vaults.put(path, new WatchedVault(path, resource, group(name, resource, propertySourceNames), digest));
+    }
+
+    private AnsibleVaultReloadablePropertySource group(String name, Resource resource, List<String> propertySourceNames) {
+        MutablePropertySources environmentSources = environment.getPropertySources();
+        List<PropertySource<?>> documents = propertySourceNames.stream().map(environmentSources::get)
+                .filter(Objects::nonNull).collect(Collectors.toList());
+        AnsibleVaultReloadablePropertySource propertySource = new AnsibleVaultReloadablePropertySource(name, resource, documents);
+        if (documents.isEmpty()) {
+            environmentSources.addLast(propertySource);
+        } else {
+            environmentSources.replace(documents.get(0).getName(), propertySource);
+            documents.stream().skip(1).map(PropertySource::getName).forEach(environmentSources::remove);
+        }
+        return propertySource;
+    }
+
+    @Override
+    public void initialize(ConfigurableApplicationContext context) {
+        this.context = context;
+        ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+        if (!beanFactory.containsSingleton(BEAN_NAME)) {
+            beanFactory.registerSingleton(BEAN_NAME, this);
+        }
+        context.addApplicationListener(this);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent && ((ContextRefreshedEvent) event).getApplicationContext() == this.context) {
+            start();
+        } else if (event instanceof ContextClosedEvent && ((ContextClosedEvent) event).getApplicationContext() == this.context) {
+            close();
+        } else if (event instanceof ApplicationFailedEvent) {
+            close();
+        }
+    }
+
+    synchronized void start() {
+        if (this.watchService != null || vaults.isEmpty()) {
+            return;
+        }
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = vaults.keySet().stream().map(Path::getParent).collect(Collectors.toSet());
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to watch vault files, changes will not be reloaded: " + e.getMessage(), e);
+            close();
+            return;
+        }
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ansible-vault-watcher-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        threadFactory.createThread(this::processEvents).start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+            } catch (IOException e) {
+                // nothing left to watch anyway
+            }
+        }
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of Vaults that have been reloaded successfully
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * @return the number of Vaults that could not be reloaded
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return the time between the first change of the most recently reloaded Vault and the replacement of its property
+     * sources, including the debounce delay
+     */
+    public Duration getLastReloadLatency() {
+        return Duration.ofNanos(lastReloadLatency);
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        vaults.values().stream().filter(vault -> vault.path.getParent().equals(directory)).forEach(this::schedule);
+                    } else {
+                        WatchedVault vault = vaults.get(directory.resolve((Path) event.context()));
+                        if (vault != null) {
+                            schedule(vault);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException | RejectedExecutionException e) {
+            // the watcher has been closed
+        }
+    }
+
+    private void schedule(WatchedVault vault) {
+        synchronized (vault) {
+            if (vault.pending != null) {
+                vault.pending.cancel(false);
+            } else {
+                vault.pendingSince = System.nanoTime();
+            }
+            vault.pending = executor.schedule(() -> reload(vault), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs on the single executor thread, so that a Vault is never reloaded concurrently.
+     */
+    private void reload(WatchedVault vault) {
+        long pendingSince;
+        synchronized (vault) {
+            pendingSince = vault.pendingSince;
+            vault.pending = null;
+        }
+
+        try {
+            byte[] digest = digest(vault.path);
+            if (MessageDigest.isEqual(digest, vault.digest)) {
+                // touched, but not modified
+                return;
+            }
+            vault.propertySource.setDocuments(loader.apply(vault.resource));
+            vault.digest = digest;
+            lastReloadLatency = System.nanoTime() - pendingSince;
+            reloadCount.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failureCount.incrementAndGet();
+            logger.warn("unable to reload vault: [" + vault.resource + "], keeping previous properties: " + e.getMessage(), e);
+            return;
+        }
+
+        ConfigurableApplicationContext context = this.context;
+        if (context != null && context.isActive()) {
+            context.publishEvent(new AnsibleVaultReloadedEvent(this, vault.resource, Collections.singletonList(vault.propertySource.getName())));
+        }
+    }
+
+    private static byte[] digest(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static class WatchedVault {
+        private final Path path;
+        private final Resource resource;
+        private final AnsibleVaultReloadablePropertySource propertySource;
+        private volatile byte[] digest;
+        private ScheduledFuture<?> pending;
+        private long pendingSince;
+
+        WatchedVault(Path path, Resource resource, AnsibleVaultReloadablePropertySource propertySource, byte[] digest) {
+            this.path = path;
+            this.resource = resource;
+            this.propertySource = propertySource;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Turns a decrypted Vault into {@link AnsibleVaultPropertySource}s without creating a String for each value. The YAML
+ * is parsed straight from the {@link AnsibleVaultPlaintext}, and only the positions of the values are recorded.
+ * Property names are flattened like {@link org.springframework.boot.env.YamlPropertySourceLoader} does, e.g.
+ * 'spring.datasource.password' or 'hosts[0]'.
+ * <p>
+ * Only the block style most Vaults are written in is supported: nested mappings, sequences of scalars, and plain,
+ * single-quoted or double-quoted scalars on a single line, in one or more documents. Anything else, e.g. flow
+ * collections, anchors, tags or multi-line scalars, is left to the fallback loader.
+ */
+final class AnsibleVaultYamlParser {
+    private static final Resolver RESOLVER = new Resolver();
+
+    private final String name;
+    private final Resource resource;
+    private final AnsibleVaultPlaintext plaintext;
+    private final ByteBuffer data;
+    private final List<List<Entry>> documents = new ArrayList<>();
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private List<Entry> entries;
+    private boolean rootOpened;
+    private String pendingPath;
+    private int pendingIndent;
+    private int lineNumber;
+
+    private AnsibleVaultYamlParser(String name, Resource resource, AnsibleVaultPlaintext plaintext) {
+        this.name = name;
+        this.resource = resource;
+        this.plaintext = plaintext;
+        this.data = plaintext.contents();
+    }
+
+    /**
+     * Decrypt and parse the Vault. If it uses YAML which is not supported, it is parsed by the fallback loader instead,
+     * from a copy on the heap which is zeroized afterwards.
+     *
+     * @param resource  the encrypted Vault
+     * @param decrypted the Vault as YAML
+     */
+    static List<PropertySource<?>> load(String name, Resource resource, Resource decrypted, PropertySourceLoader fallback) throws IOException {
+        AnsibleVaultPlaintext plaintext;
+        try (InputStream in = decrypted.getInputStream()) {
+            plaintext = AnsibleVaultPlaintext.read(in);
+        }
+        try {
+            List<PropertySource<?>> propertySources = parse(name, resource, plaintext);
+            if (propertySources.isEmpty()) {
+                plaintext.close();
+            }
+            return propertySources;
+        } catch (UnsupportedYamlException e) {
+            byte[] contents = plaintext.toByteArray();
+            plaintext.close();
+            try {
+                return fallback.load(name, new ByteArrayResource(contents, decrypted.getDescription()));
+            } finally {
+                Arrays.fill(contents, (byte) 0x00);
+            }
+        }
+    }
+
+    /**
+     * @return one property source for each document which is not empty
+     */
+    static List<PropertySource<?>> parse(String name, Resource resource, AnsibleVaultPlaintext plaintext) throws UnsupportedYamlException {
+        return new AnsibleVaultYamlParser(name, resource, plaintext).parse();
+    }
+
+    private List<PropertySource<?>> parse() throws UnsupportedYamlException {
+        int limit = data.limit();
+        int pos = 0;
+        if (limit >= 3 && data.get(0) == (byte) 0xEF && data.get(1) == (byte) 0xBB && data.get(2) == (byte) 0xBF) {
+            pos = 3;
+        }
+        startDocument();
+        while (pos < limit) {
+            int end = pos;
+            while (end < limit && data.get(end) != '\n' && data.get(end) != '\r') {
+                end++;
+            }
+            lineNumber++;
+            parseLine(pos, end);
+            pos = end < limit && data.get(end) == '\r' && end + 1 < limit && data.get(end + 1) == '\n' ? end + 2 : end + 1;
+        }
+        endDocument();
+
+        List<PropertySource<?>> propertySources = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            String documentNumber = documents.size() != 1 ? " (document #" + i + ")" : "";
+            propertySources.add(createPropertySource(name + documentNumber, documents.get(i)));
+        }
+        return propertySources;
+    }
+
+    private void parseLine(int start, int end) throws UnsupportedYamlException {
+        int pos = start;
+        boolean tabs = false;
+        while (pos < end && isBlank(data.get(pos))) {
+            tabs |= data.get(pos++) == '\t';
+        }
+        if (pos == end || data.get(pos) == '#') {
+            return;
+        }
+        if (tabs) {
+            throw unsupported("tab in indentation");
+        }
+        int indent = pos - start;
+        if (indent == 0 && isMarker(pos, end, '-')) {
+            requireEndOfLine(pos + 3, end);
+            endDocument();
+            startDocument();
+            return;
+        }
+        if (indent == 0 && (isMarker(pos, end, '.') || data.get(pos) == '%')) {
+            throw unsupported("document end marker or directive");
+        }
+
+        boolean item = data.get(pos) == '-' && (pos + 1 == end || isBlank(data.get(pos + 1)));
+        Frame frame = enter(indent, item);
+        if (item) {
+            if (!frame.sequence) {
+                throw unsupported("sequence item in mapping");
+            }
+            int value = skipBlanks(pos + 1, end);
+            if (value == end || data.get(value) == '#') {
+                throw unsupported("nested sequence item");
+            }
+            add(frame.path + "[" + frame.count++ + "]", scanScalar(value, end));
+        } else {
+            if (frame.sequence) {
+                throw unsupported("mapping in sequence");
+            }
+            int colon = scanKey(pos, end);
+            String key = readKey(pos, colon);
+            String path = frame.path.isEmpty() ? key : key.startsWith("[") ? frame.path + key : frame.path + "." + key;
+            int value = skipBlanks(colon + 1, end);
+            if (value == end || data.get(value) == '#') {
+                pendingPath = path;
+                pendingIndent = indent;
+            } else {
+                add(path, scanScalar(value, end));
+            }
+        }
+    }
+
+    /**
+     * Find the node a line at the given indentation belongs to. A key without a value opens a nested node, if the
+     * next line is indented further, or is a sequence item.
+     */
+    private Frame enter(int indent, boolean item) throws UnsupportedYamlException {
+        if (pendingPath != null) {
+            String path = pendingPath;
+            pendingPath = null;
+            if (item ? indent >= pendingIndent : indent > pendingIndent) {
+                Frame frame = new Frame(indent, path, item);
+                frames.push(frame);
+                return frame;
+            }
+            entries.add(new Entry(path, 0, 0, AnsibleVaultPropertySource.EMPTY));
+        }
+        while (!frames.isEmpty() && (frames.peek().indent > indent || (frames.peek().indent == indent && frames.peek().sequence && !item))) {
+            frames.pop();
+        }
+        if (frames.isEmpty()) {
+            if (rootOpened || item) {
+                throw unsupported("unexpected indentation or sequence at document root");
+            }
+            rootOpened = true;
+            frames.push(new Frame(indent, "", false));
+        }
+        if (frames.peek().indent != indent) {
+            throw unsupported("unexpected indentation");
+        }
+        return frames.peek();
+    }
+
+    private void startDocument() {
+        entries = new ArrayList<>();
+        frames.clear();
+        rootOpened = false;
+        pendingPath = null;
+    }
+
+    private void endDocument() {
+        if (pendingPath != null) {
+            entries.add(new Entry(pendingPath, 0, 0, AnsibleVaultPropertySource.EMPTY));
+            pendingPath = null;
+        }
+        if (rootOpened) {
+            documents.add(entries);
+        }
+    }
+
+    private void add(String path, Entry value) {
+        entries.add(new Entry(path, value.offset, value.length, value.style));
+    }
+
+    /**
+     * @return the position of the colon which ends the key
+     */
+    private int scanKey(int start, int end) throws UnsupportedYamlException {
+        byte first = data.get(start);
+        if (first == '"' || first == '\'') {
+            Entry key = scanQuoted(start, end);
+            int colon = skipBlanks(key.offset + key.length + 1, end);
+            if (colon < end && data.get(colon) == ':' && (colon + 1 == end || isBlank(data.get(colon + 1)))) {
+                return colon;
+            }
+            throw unsupported("quoted key without value");
+        }
+        checkPlainStart(start, end);
+        for (int pos = start; pos < end; pos++) {
+            byte chr = data.get(pos);
+            if (chr == ':' && (pos + 1 == end || isBlank(data.get(pos + 1)))) {
+                return pos;
+            }
+            if (chr == '#' && isBlank(data.get(pos - 1))) {
+                break;
+            }
+        }
+        throw unsupported("scalar where a key is expected");
+    }
+
+    private String readKey(int start, int colon) throws UnsupportedYamlException {
+        byte first = data.get(start);
+        String key;
+        if (first == '"' || first == '\'') {
+            Entry quoted = scanQuoted(start, colon);
+            key = decode(quoted.offset, quoted.length, quoted.style);
+        } else {
+            int end = colon;
+            while (isBlank(data.get(end - 1))) {
+                end--;
+            }
+            key = decode(start, end - start, AnsibleVaultPropertySource.PLAIN);
+            if (!RESOLVER.resolve(NodeId.scalar, key, true).equals(Tag.STR)) {
+                throw unsupported("key which is not a string");
+            }
+        }
+        if (key.isEmpty()) {
+            throw unsupported("empty key");
+        }
+        return key;
+    }
+
+    /**
+     * @return the position and style of the scalar value, which must be followed by the end of the line or a comment
+     */
+    private Entry scanScalar(int start, int end) throws UnsupportedYamlException {
+        byte first = data.get(start);
+        if (first == '"' || first == '\'') {
+            Entry value = scanQuoted(start, end);
+            requireEndOfLine(value.offset + value.length + 1, end);
+            return value;
+        }
+        checkPlainStart(start, end);
+        int valueEnd = end;
+        for (int pos = start; pos < end; pos++) {
+            byte chr = data.get(pos);
+            if (chr == ':' && (pos + 1 == end || isBlank(data.get(pos + 1)))) {
+                throw unsupported("mapping where a scalar is expected");
+            }
+            if (chr == '#' && isBlank(data.get(pos - 1))) {
+                valueEnd = pos;
+                break;
+            }
+        }
+        while (isBlank(data.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+        return new Entry(null, start, valueEnd - start, AnsibleVaultPropertySource.PLAIN);
+    }
+
+    /**
+     * @return the position and style of the text between the quotes, with escape sequences validated
+     */
+    private Entry scanQuoted(int start, int end) throws UnsupportedYamlException {
+        byte quote = data.get(start);
+        for (int pos = start + 1; pos < end; pos++) {
+            byte chr = data.get(pos);
+            if (quote == '\'' && chr == '\'') {
+                if (pos + 1 < end && data.get(pos + 1) == '\'') {
+                    pos++;
+                    continue;
+                }
+                return new Entry(null, start + 1, pos - start - 1, AnsibleVaultPropertySource.SINGLE_QUOTED);
+            }
+            if (quote == '"' && chr == '"') {
+                return new Entry(null, start + 1, pos - start - 1, AnsibleVaultPropertySource.DOUBLE_QUOTED);
+            }
+            if (quote == '"' && chr == '\\') {
+                pos = checkEscape(pos + 1, end);
+            }
+        }
+        throw unsupported("multi-line quoted scalar");
+    }
+
+    /**
+     * @return the position of the last character of the escape sequence
+     */
+    private int checkEscape(int pos, int end) throws UnsupportedYamlException {
+        if (pos == end) {
+            throw unsupported("line continuation");
+        }
+        char chr = (char) (data.get(pos) & 0xFF);
+        int digits = getHexEscapeLength(chr);
+        if (digits == 0) {
+            if (getEscapedChar(chr) == 0 && chr != '0') {
+                throw unsupported("invalid escape sequence");
+            }
+            return pos;
+        }
+        if (pos + digits >= end) {
+            throw unsupported("invalid escape sequence");
+        }
+        int codePoint = 0;
+        for (int i = 1; i <= digits; i++) {
+            int digit = Character.digit((char) (data.get(pos + i) & 0xFF), 16);
+            if (digit < 0) {
+                throw unsupported("invalid escape sequence");
+            }
+            codePoint = codePoint * 16 + digit;
+        }
+        if (!Character.isValidCodePoint(codePoint)) {
+            throw unsupported("invalid escape sequence");
+        }
+        return pos + digits;
+    }
+
+    private void checkPlainStart(int start, int end) throws UnsupportedYamlException {
+        byte first = data.get(start);
+        if ("[]{},&*!|>%@`".indexOf(first) >= 0
+                || ((first == '?' || first == ':' || first == '-') && (start + 1 == end || isBlank(data.get(start + 1))))) {
+            throw unsupported("flow collection, anchor, alias, tag, block scalar or complex key");
+        }
+    }
+
+    private void requireEndOfLine(int start, int end) throws UnsupportedYamlException {
+        int pos = skipBlanks(start, end);
+        if (pos < end && !(data.get(pos) == '#' && pos > start)) {
+            throw unsupported("unexpected content after scalar");
+        }
+    }
+
+    private boolean isMarker(int pos, int end, char marker) {
+        return pos + 3 <= end && data.get(pos) == marker && data.get(pos + 1) == marker && data.get(pos + 2) == marker
+                && (pos + 3 == end || isBlank(data.get(pos + 3)));
+    }
+
+    private int skipBlanks(int pos, int end) {
+        while (pos < end && isBlank(data.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isBlank(byte chr) {
+        return chr == ' ' || chr == '\t';
+    }
+
+    private String decode(int offset, int length, byte style) {
+        char[] chars = plaintext.decode(offset, length);
+        try {
+            return unquote(chars, style);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    private AnsibleVaultPropertySource createPropertySource(String name, List<Entry> entries) throws UnsupportedYamlException {
+        entries.sort(Comparator.comparing(entry -> entry.name));
+        String[] names = new String[entries.size()];
+        int[] offsets = new int[entries.size()];
+        int[] lengths = new int[entries.size()];
+        byte[] styles = new byte[entries.size()];
+        for (int i = 0; i < names.length; i++) {
+            Entry entry = entries.get(i);
+            if (i > 0 && entry.name.equals(names[i - 1])) {
+                throw new UnsupportedYamlException("duplicate key '" + entry.name + "'");
+            }
+            names[i] = entry.name;
+            offsets[i] = entry.offset;
+            lengths[i] = entry.length;
+            styles[i] = entry.style;
+        }
+        return new AnsibleVaultPropertySource(name, resource, plaintext, names, offsets, lengths, styles);
+    }
+
+    private UnsupportedYamlException unsupported(String construct) {
+        return new UnsupportedYamlException(construct + " in line " + lineNumber);
+    }
+
+    /**
+     * Remove the quotes of a scalar, whose escape sequences have already been validated. Plain scalars are returned
+     * as they are.
+     */
+    static String unquote(char[] chars, byte style) {
+        if (style == AnsibleVaultPropertySource.PLAIN) {
+            return new String(chars);
+        }
+        char[] result = new char[chars.length];
+        int length = 0;
+        for (int i = 0; i < chars.length; i++) {
+            char chr = chars[i];
+            if (style == AnsibleVaultPropertySource.SINGLE_QUOTED || chr != '\\') {
+                result[length++] = chr;
+                if (chr == '\'' && style == AnsibleVaultPropertySource.SINGLE_QUOTED) {
+                    // the quote has been doubled
+                    i++;
+                }
+                continue;
+            }
+            chr = chars[++i];
+            int digits = getHexEscapeLength(chr);
+            if (digits > 0) {
+                int codePoint = 0;
+                for (int j = 1; j <= digits; j++) {
+                    codePoint = codePoint * 16 + Character.digit(chars[i + j], 16);
+                }
+                length += Character.toChars(codePoint, result, length);
+                i += digits;
+            } else {
+                result[length++] = getEscapedChar(chr);
+            }
+        }
+        try {
+            return new String(result, 0, length);
+        } finally {
+            Arrays.fill(result, '\0');
+        }
+    }
+
+    private static int getHexEscapeLength(char chr) {
+        switch (chr) {
+            case 'x':
+                return 2;
+            case 'u':
+                return 4;
+            case 'U':
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the character denoted by a single-character escape sequence, or 0 if it is invalid
+     */
+    private static char getEscapedChar(char chr) {
+        switch (chr) {
+            case '0':
+                return '\0';
+            case 'a':
+                return '\u0007';
+            case 'b':
+                return '\b';
+            case 't':
+            case '\t':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'v':
+                return '\u000B';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case 'e':
+                return '\u001B';
+            case ' ':
+                return ' ';
+            case '"':
+                return '"';
+            case '\\':
+                return '\\';
+            case 'N':
+                return '\u0085';
+            case '_':
+                return (char) 0x00A0;
+            case 'L':
+                return (char) 0x2028;
+            case 'P':
+                return (char) 0x2029;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * The Vault uses YAML which is not supported
+     */
+    static final class UnsupportedYamlException extends Exception {
+        UnsupportedYamlException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A mapping or sequence which is being parsed
+     */
+    private static final class Frame {
+        final int indent;
+        final String path;
+        final boolean sequence;
+        int count;
+
+        Frame(int indent, String path, boolean sequence) {
+            this.indent = indent;
+            this.path = path;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final int offset;
+        final int length;
+        final byte style;
+
+        Entry(String name, int offset, int length, byte style) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.style = style;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.springframework.beans.factory.config.YamlProcessor;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.AbstractConstruct;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+import org.yaml.snakeyaml.representer.Representer;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Loads YAML configuration files which contain single values encrypted with "ansible-vault encrypt_string", i.e.
+ * scalars tagged with '!vault'. The encrypted values are kept as they are, and only decrypted once they are requested
+ * from the resulting {@link AnsibleVaultInlinePropertySource}.
+ * <p>
+ * Spring Boot's own loader rejects unknown tags, so this loader takes precedence for '.yml' and '.yaml' files. Files
+ * without a '!vault' tag are passed on to the {@link YamlPropertySourceLoader}; only files with encrypted values are
+ * parsed here, without tracking the origin of each value.
+ */
+public class AnsibleVaultYamlPropertySourceLoader implements PropertySourceLoader, Ordered {
+    private static final Tag VAULT_TAG = new Tag("!vault");
+
+    private final YamlPropertySourceLoader delegate = new YamlPropertySourceLoader();
+
+    @Override
+    public String[] getFileExtensions() {
+        return delegate.getFileExtensions();
+    }
+
+    @Override
+    public List<PropertySource<?>> load(String name, Resource resource) throws IOException {
+        if (!containsVaultTag(resource)) {
+            return delegate.load(name, resource);
+        }
+
+        List<Map<String, Object>> documents = new InlineVaultYamlProcessor(resource).load();
+        List<PropertySource<?>> propertySources = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            String documentNumber = documents.size() != 1 ? " (document #" + i + ")" : "";
+            propertySources.add(new AnsibleVaultInlinePropertySource(name + documentNumber, Collections.unmodifiableMap(documents.get(i))));
+        }
+        return propertySources;
+    }
+
+    /**
+     * Scan the YAML events for a node tagged with '!vault', so that the same text in a comment or a value does not
+     * count. The file is streamed, and scanning stops at the first tag. A file which cannot be parsed is left to the
+     * {@link YamlPropertySourceLoader}, which reports the error.
+     */
+    private boolean containsVaultTag(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            for (Event event : new Yaml().parse(new UnicodeReader(in))) {
+                String tag = event instanceof ScalarEvent ? ((ScalarEvent) event).getTag()
+                        : event instanceof CollectionStartEvent ? ((CollectionStartEvent) event).getTag() : null;
+                if (VAULT_TAG.getValue().equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (YAMLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    /**
+     * Parses the documents of a YAML file like Spring Boot does, but keeps '!vault' tagged scalars as
+     * {@link AnsibleVaultInlinePropertySource.EncryptedValue}.
+     */
+    private static class InlineVaultYamlProcessor extends YamlProcessor {
+
+        InlineVaultYamlProcessor(Resource resource) {
+            setResources(resource);
+        }
+
+        @Override
+        protected Yaml createYaml() {
+            return new Yaml(new InlineVaultConstructor(), new Representer(), new DumperOptions(), new LimitedResolver());
+        }
+
+        List<Map<String, Object>> load() {
+            List<Map<String, Object>> result = new ArrayList<>();
+            process((properties, map) -> result.add(getFlattenedMap(map)));
+            return result;
+        }
+
+        private static class InlineVaultConstructor extends StrictMapAppenderConstructor {
+
+            InlineVaultConstructor() {
+                this.yamlConstructors.put(VAULT_TAG, new AbstractConstruct() {
+                    @Override
+                    public Object construct(Node node) {
+                        if (!(node instanceof ScalarNode)) {
+                            throw new YAMLException("tag " + VAULT_TAG.getValue() + " is only supported for scalar values");
+                        }
+                        return new AnsibleVaultInlinePropertySource.EncryptedValue(((ScalarNode) node).getValue());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Like Spring Boot, keep timestamps as strings
+     */
+    private static class LimitedResolver extends Resolver {
+
+        @Override
+        public void addImplicitResolver(Tag tag, Pattern regexp, String first) {
+            if (tag == Tag.TIMESTAMP) {
+                return;
+            }
+            super.addImplicitResolver(tag, regexp, first);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * The JCE instances needed for a Vault, looked up once per thread and initialized again for every key. Looking up a
+ * Cipher or Mac goes through the provider framework, which takes several times longer than decrypting a small Vault
+ * (see CryptoContextBenchmark in the benchmarks module).
+ * <p>
+ * A context is acquired for one operation, which must be completed before the context is closed:
+ * <pre>
+ * try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+ *     Mac mac = crypto.getMac(keys.getHmacKey());
+ *     ...
+ * }
+ * </pre>
+ * Closing the context initializes the instances with a blank key, so that they do not retain the key of the last
+ * Vault. If a context is acquired again on the same thread before it has been closed, a separate context is returned.
+ * Instances which outlive a single method, e.g. those of a stream which decrypts on the fly, are not taken from a
+ * context.
+ */
+final class AnsibleVaultCryptoContext implements AutoCloseable {
+    private static final ThreadLocal<AnsibleVaultCryptoContext> CONTEXT = ThreadLocal.withInitial(AnsibleVaultCryptoContext::new);
+    private static final SecretKey BLANK_KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final IvParameterSpec BLANK_IV = new IvParameterSpec(new byte[16]);
+
+    private final boolean shared;
+    private boolean acquired;
+    private Mac mac;
+    private boolean macUsed;
+    private Cipher cipher;
+    private boolean cipherUsed;
+    private SecretKeyFactory keyFactory;
+
+    private AnsibleVaultCryptoContext() {
+        this(true);
+    }
+
+    private AnsibleVaultCryptoContext(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Get the context of the current thread
+     */
+    static AnsibleVaultCryptoContext acquire() {
+        AnsibleVaultCryptoContext context = CONTEXT.get();
+        if (context.acquired) {
+            return new AnsibleVaultCryptoContext(false);
+        }
+        context.acquired = true;
+        return context;
+    }
+
+    /**
+     * @return a HmacSHA256 instance, initialized with the given key
+     */
+    Mac getMac(SecretKey key) throws GeneralSecurityException {
+        if (mac == null) {
+            mac = Mac.getInstance("HmacSHA256");
+        }
+        macUsed = true;
+        mac.init(key);
+        return mac;
+    }
+
+    /**
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @return an AES/CTR instance, initialized with the given key and initial counter
+     */
+    Cipher getCipher(int mode, SecretKey key, byte[] iv) throws GeneralSecurityException {
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        }
+        cipherUsed = true;
+        cipher.init(mode, key, new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    /**
+     * Derive a key with PBKDF2WithHmacSHA256
+     */
+    byte[] deriveKey(PBEKeySpec keySpec) throws GeneralSecurityException {
+        if (keyFactory == null) {
+            keyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        }
+        return keyFactory.generateSecret(keySpec).getEncoded();
+    }
+
+    /**
+     * Replace the keys of the instances, and make the context available to the next operation on this thread
+     */
+    @Override
+    public void close() {
+        try {
+            if (macUsed) {
+                mac.init(BLANK_KEY);
+            }
+            if (cipherUsed) {
+                cipher.init(Cipher.ENCRYPT_MODE, BLANK_KEY, BLANK_IV);
+            }
+        } catch (GeneralSecurityException e) {
+            // an instance which cannot be initialized again is not reused
+            mac = null;
+            cipher = null;
+        } finally {
+            macUsed = false;
+            cipherUsed = false;
+            if (shared) {
+                acquired = false;
+            }
+        }
+    }
+}
@@ -16,9 +16,8 @@
 package de.trautwig.spring.boot.ansible.vault.io;
 
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.Destroyable;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 
@@ -26,23 +25,58 @@ import java.util.Arrays;
  * Derive Encryption and HMAC keys and an Initialization Vector (IV) from a given password and a random salt.
  * See https://docs.ansible.com/ansible/latest/user_guide/vault.html#vault-payload-format-1-1
  */
-class AnsibleVaultEncryptionKeys {
+class AnsibleVaultEncryptionKeys implements Destroyable {
+    private static final int KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 16;
+    static final int DERIVED_KEY_LENGTH = KEY_LENGTH + KEY_LENGTH + IV_LENGTH;
 
-    private final SecretKey cipherKey;
-    private final SecretKey hmacKey;
+    private final byte[] derivedKey;
+    private final RawSecretKey cipherKey;
+    private final RawSecretKey hmacKey;
     private final byte[] iv;
 
     public AnsibleVaultEncryptionKeys(char[] password, byte[] salt) throws GeneralSecurityException {
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        SecretKey secretKey = keyFactory.generateSecret(new PBEKeySpec(password, salt, 10_000, (32 + 32 + 16) * 8));
-        byte[] secretKeyBytes = secretKey.getEncoded();
-        if (secretKeyBytes.length != 80) {
-            throw new IllegalArgumentException("unexpected key length: " + secretKeyBytes.length);
+        this(deriveKey(password, salt));
+    }
+
+    /**
+     * @param derivedKey the keys and IV as derived from a password, see {@link #getEncoded()}
+     */
+    AnsibleVaultEncryptionKeys(byte[] derivedKey) {
+        if (derivedKey.length != DERIVED_KEY_LENGTH) {
+            throw new IllegalArgumentException("unexpected key length: " + derivedKey.length);
         }
 
-        cipherKey = new SecretKeySpec(secretKeyBytes, 0, 32, "AES");
-        hmacKey = new SecretKeySpec(secretKeyBytes, 32, 32, "AES");
-        iv = Arrays.copyOfRange(secretKeyBytes, 64, 64 + 16);
+        this.derivedKey = derivedKey;
+        cipherKey = new RawSecretKey(Arrays.copyOfRange(derivedKey, 0, KEY_LENGTH), "AES");
+        hmacKey = new RawSecretKey(Arrays.copyOfRange(derivedKey, KEY_LENGTH, 2 * KEY_LENGTH), "AES");
+        iv = Arrays.copyOfRange(derivedKey, 2 * KEY_LENGTH, DERIVED_KEY_LENGTH);
+    }
+
+    private static byte[] deriveKey(char[] password, byte[] salt) throws GeneralSecurityException {
+        PBEKeySpec keySpec = new PBEKeySpec(password, salt, 10_000, DERIVED_KEY_LENGTH * 8);
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            return crypto.deriveKey(keySpec);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Create an independent copy of these keys, which can be destroyed without affecting this instance
+     */
+    AnsibleVaultEncryptionKeys copy() {
+        return new AnsibleVaultEncryptionKeys(derivedKey.clone());
+    }
+
+    /**
+     * Get a copy of the keys and IV as derived from the password, e.g. to store them in a persistent cache
+     */
+    byte[] getEncoded() {
+        if (isDestroyed()) {
+            throw new IllegalStateException("keys have been destroyed");
+        }
+        return derivedKey.clone();
     }
 
     /**
@@ -66,4 +100,64 @@ class AnsibleVaultEncryptionKeys {
         return iv;
     }
 
+    /**
+     * Overwrite all key material held by this instance
+     */
+    @Override
+    public void destroy() {
+        Arrays.fill(derivedKey, (byte) 0x00);
+        Arrays.fill(iv, (byte) 0x00);
+        cipherKey.destroy();
+        hmacKey.destroy();
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return cipherKey.isDestroyed();
+    }
+
+    /**
+     * Unlike {@link javax.crypto.spec.SecretKeySpec}, this key can be wiped from memory once it is no longer needed.
+     */
+    static final class RawSecretKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] key;
+        private final String algorithm;
+        private volatile boolean destroyed;
+
+        RawSecretKey(byte[] key, String algorithm) {
+            this.key = key;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            if (destroyed) {
+                throw new IllegalStateException("key has been destroyed");
+            }
+            return key.clone();
+        }
+
+        @Override
+        public void destroy() {
+            Arrays.fill(key, (byte) 0x00);
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
 }
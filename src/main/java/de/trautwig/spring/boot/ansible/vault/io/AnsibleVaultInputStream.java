@@ -15,156 +15,410 @@
  */
 package de.trautwig.spring.boot.ansible.vault.io;
 
-import org.springframework.util.StreamUtils;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings.Phase;
+import org.springframework.core.io.InputStreamSource;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.IvParameterSpec;
-import java.awt.image.ImagingOpException;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.util.Arrays;
-
-import static de.trautwig.spring.boot.ansible.vault.io.Hexlify.unhexlify;
-import static java.util.Optional.ofNullable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 /**
  * Reads a file in "Ansible Vault" format. This file is supposed to contain sensitive data, but is encrypted such that
  * it can be placed into public source control.
  * <p>
+ * The Vault is hex-decoded incrementally. When reading from an {@link InputStream}, the HMAC is verified and the
+ * ciphertext is decrypted in the same pass, and the plaintext is buffered until the HMAC has been verified; large
+ * Vaults are verified first and then decrypted on several cores. When reading from an {@link InputStreamSource}, the
+ * Vault is read twice instead: once to verify the HMAC, and once more to decrypt it on the fly, using a constant
+ * amount of memory. A {@link File} is mapped into memory and decoded without copying its contents into the heap.
+ * <p>
+ * The time spent in each phase of reading the Vault is recorded in {@link AnsibleVaultTimings}.
+ * <p>
+ * Vaults in format 1.2 are labeled with a vault-id. Instead of a single password, a function can be given which
+ * returns the password for a vault-id, or for Vaults in format 1.1, for which it is called with null.
+ * <p>
  * See https://docs.ansible.com/ansible/latest/user_guide/vault.html#vault-format
  */
 public class AnsibleVaultInputStream extends InputStream {
-    private final InputStream vaultStream;
-    private char[] rawContents;
-    private int rawOffset = 0;
-    private int rawLength;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int BLOCK_SIZE = 16;
+    private static final long STREAMING_THRESHOLD = 1024 * 1024;
+
+    private final AnsibleVaultTimings timings;
+    private final ForkJoinPool pool;
+    // the stream or reader to be closed, if any
+    private Closeable vault;
     private byte[] payload;
     private int payloadOffset;
     private int payloadLength;
 
+    // only used when decrypting on the fly
+    private AnsibleVaultPayloadReader reader;
+    private Cipher cipher;
+    private Mac mac;
+    private byte[] expectedHmac;
+    private byte[] ciphertext;
+    private int payloadFill;
+
     public AnsibleVaultInputStream(File vaultFile, char[] password) throws IOException, GeneralSecurityException {
-        this(new FileInputStream(vaultFile), password);
+        this(vaultFile, vaultId -> password, new AnsibleVaultTimings());
     }
 
-    public AnsibleVaultInputStream(InputStream vaultStream, char[] password) throws IOException, GeneralSecurityException {
-        this.vaultStream = vaultStream;
-        rawContents = StreamUtils.copyToString(vaultStream, StandardCharsets.UTF_8).toCharArray();
-        rawLength = rawContents.length;
-        readHeader();
-        readPayload(password);
+    /**
+     * Decrypt a Vault file, which is mapped into memory and decoded straight from the mapped buffer. Small Vaults are
+     * decrypted in a single pass; larger ones are read twice like an {@link InputStreamSource}, so that the plaintext
+     * does not have to be buffered. Vaults large enough to be decrypted on several cores are buffered anyway, and
+     * decrypted in a single pass if there are several cores. The file must not be truncated while it is read.
+     *
+     * @param passwords returns the password for the vault-id of the Vault
+     */
+    public AnsibleVaultInputStream(File vaultFile, Function<String, char[]> passwords, AnsibleVaultTimings timings) throws IOException, GeneralSecurityException {
+        this(vaultFile, passwords, timings, ForkJoinPool.commonPool());
     }
 
-    private void readHeader() throws IOException {
-        final String expectedFormatId = "$ANSIBLE_VAULT;";
-        if (null == findExpectedHeader(expectedFormatId)) {
-            throw new IOException("header " + expectedFormatId + " expected");
+    /**
+     * @param pool decrypts large Vaults, instead of the common pool
+     */
+    AnsibleVaultInputStream(File vaultFile, Function<String, char[]> passwords, AnsibleVaultTimings timings, ForkJoinPool pool) throws IOException, GeneralSecurityException {
+        this.timings = timings;
+        this.pool = pool;
+        long time = System.nanoTime();
+        ByteBuffer mapped = map(vaultFile);
+        // each byte of ciphertext takes four bytes of the file, as it is hex-encoded twice
+        if (mapped.remaining() > STREAMING_THRESHOLD && !AnsibleVaultParallelDecryptor.isWorthwhile(mapped.remaining() / 4, pool)) {
+            timings.lap(Phase.HEX_DECODE, time);
+            verifyAndOpen(() -> new AnsibleVaultPayloadReader(mapped), passwords);
+            return;
         }
+        AnsibleVaultPayloadReader reader = new AnsibleVaultPayloadReader(mapped);
+        time = timings.lap(Phase.HEX_DECODE, time);
+        AnsibleVaultEncryptionKeys keys = getKeys(reader, passwords);
+        timings.lap(Phase.KEY_DERIVATION, time);
+        try {
+            decryptPayload(reader, keys, mapped.remaining() / 4);
+        } finally {
+            keys.destroy();
+        }
+    }
+
+    public AnsibleVaultInputStream(InputStream vaultStream, char[] password) throws IOException, GeneralSecurityException {
+        this(vaultStream, vaultId -> password, new AnsibleVaultTimings());
+    }
 
-        final String expectedVersion = "1.1;";
-        if (null == findExpectedHeader(expectedVersion)) {
-            throw new IOException("header version " + expectedVersion + " expected");
+    /**
+     * @param passwords returns the password for the vault-id of the Vault
+     */
+    public AnsibleVaultInputStream(InputStream vaultStream, Function<String, char[]> passwords, AnsibleVaultTimings timings) throws IOException, GeneralSecurityException {
+        this(vaultStream, passwords, timings, AnsibleVaultKeyCache.getDefault());
+    }
+
+    /**
+     * @param keyCache the cache to take the keys from, instead of the process-wide one
+     */
+    AnsibleVaultInputStream(InputStream vaultStream, Function<String, char[]> passwords, AnsibleVaultTimings timings, AnsibleVaultKeyCache keyCache) throws IOException, GeneralSecurityException {
+        this.timings = timings;
+        this.pool = ForkJoinPool.commonPool();
+        this.vault = vaultStream;
+        long time = System.nanoTime();
+        AnsibleVaultPayloadReader reader = new AnsibleVaultPayloadReader(vaultStream);
+        time = timings.lap(Phase.HEX_DECODE, time);
+        AnsibleVaultEncryptionKeys keys = getKeys(reader, passwords, keyCache);
+        timings.lap(Phase.KEY_DERIVATION, time);
+        try {
+            decryptPayload(reader, keys, vaultStream.available() / 4);
+        } finally {
+            keys.destroy();
         }
+    }
+
+    /**
+     * Decrypt a Vault which can be opened repeatedly, e.g. a {@link org.springframework.core.io.Resource}. The Vault is
+     * read twice, so the source must not change in the meantime. If it does, an {@link IOException} is thrown once
+     * the modification is detected.
+     */
+    public AnsibleVaultInputStream(InputStreamSource vaultSource, char[] password) throws IOException, GeneralSecurityException {
+        this(vaultSource, vaultId -> password, new AnsibleVaultTimings());
+    }
+
+    /**
+     * @param passwords returns the password for the vault-id of the Vault
+     */
+    public AnsibleVaultInputStream(InputStreamSource vaultSource, Function<String, char[]> passwords, AnsibleVaultTimings timings) throws IOException, GeneralSecurityException {
+        this.timings = timings;
+        this.pool = ForkJoinPool.commonPool();
+        verifyAndOpen(() -> new AnsibleVaultPayloadReader(vaultSource.getInputStream()), passwords);
+    }
 
-        String algorithm = findUntilNextLineBreak();
-        if (algorithm == null) {
-            throw new IOException("Crypto algorithm header not found");
+    /**
+     * Verify the HMAC of the Vault in a first pass, and prepare decrypting it on the fly in a second pass
+     */
+    private void verifyAndOpen(ReaderSource vaultSource, Function<String, char[]> passwords) throws IOException, GeneralSecurityException {
+        AnsibleVaultEncryptionKeys keys;
+        long time = System.nanoTime();
+        try (AnsibleVaultPayloadReader reader = vaultSource.open()) {
+            time = timings.lap(Phase.HEX_DECODE, time);
+            keys = getKeys(reader, passwords);
+            timings.lap(Phase.KEY_DERIVATION, time);
+            try {
+                verifyHmac(reader, keys);
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                keys.destroy();
+                throw e;
+            }
         }
-        if (!"AES256".equals(algorithm)) {
-            throw new IOException("Unsupported crypto algorithm: " + algorithm);
+
+        try {
+            time = System.nanoTime();
+            this.reader = vaultSource.open();
+            this.vault = reader;
+            timings.lap(Phase.HEX_DECODE, time);
+            this.expectedHmac = reader.getExpectedHmac();
+            this.mac = Mac.getInstance("HmacSHA256");
+            this.mac.init(keys.getHmacKey());
+            this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            this.cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            if (reader != null) {
+                reader.close();
+            }
+            throw e;
+        } finally {
+            keys.destroy();
         }
+        this.ciphertext = new byte[BUFFER_SIZE];
+        this.payload = new byte[BUFFER_SIZE + BLOCK_SIZE];
     }
 
-    private void readPayload(char[] password) throws IOException, GeneralSecurityException {
-        stripRemainingLineBreaks();
-        byte[] payload = unhexlify(rawContents, rawOffset, rawLength - rawOffset);
-        rawContents = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(payload)).array();
-        rawLength = rawContents.length;
-        rawOffset = 0;
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("vault too large to be mapped into memory: " + file);
+            }
+            // the mapping remains valid after the channel has been closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
 
-        byte[] salt = unhexlify(ofNullable(findUntilNextLineBreak()).orElseThrow(() -> new IOException("cannot determine end of salt")));
-        byte[] expectedHmac = unhexlify(ofNullable(findUntilNextLineBreak()).orElseThrow(() -> new ImagingOpException("cannot determine end of HMAC")));
-        AnsibleVaultEncryptionKeys keys = new AnsibleVaultEncryptionKeys(password, salt);
-        stripRemainingLineBreaks();
-        byte[] ciphertext = unhexlify(rawContents, rawOffset, rawLength - rawOffset);
+    static AnsibleVaultEncryptionKeys getKeys(AnsibleVaultPayloadReader reader, Function<String, char[]> passwords) throws GeneralSecurityException {
+        return getKeys(reader, passwords, AnsibleVaultKeyCache.getDefault());
+    }
 
-        verifyHmac(keys, expectedHmac, ciphertext);
-        decryptPayload(keys, ciphertext);
-        rawContents = null;
+    private static AnsibleVaultEncryptionKeys getKeys(AnsibleVaultPayloadReader reader, Function<String, char[]> passwords, AnsibleVaultKeyCache keyCache) throws GeneralSecurityException {
+        char[] password = passwords.apply(reader.getVaultId());
+        if (password == null) {
+            throw new GeneralSecurityException("no password for vault-id: " + reader.getVaultId());
+        }
+        return keyCache.getKeys(password, reader.getSalt());
     }
 
-    private void verifyHmac(AnsibleVaultEncryptionKeys keys, byte[] expectedHmac, byte[] ciphertext) throws GeneralSecurityException {
-        Mac mac = Mac.getInstance("HmacSHA256");
-        mac.init(keys.getHmacKey());
-        byte[] actualHmac = mac.doFinal(ciphertext);
-        if (!Arrays.equals(actualHmac, expectedHmac)) {
-            throw new SignatureException("HMAC does not match, either the given password is invalid or the file has been modified");
+    /**
+     * Verify and decrypt the ciphertext in a single pass: each chunk is fed to both the Mac and the Cipher, which
+     * writes into a single output buffer. The plaintext only becomes readable once the HMAC has been verified.
+     */
+    private void decryptPayload(AnsibleVaultPayloadReader reader, AnsibleVaultEncryptionKeys keys, int expectedLength) throws IOException, GeneralSecurityException {
+        if (AnsibleVaultParallelDecryptor.isWorthwhile(expectedLength, pool)) {
+            decryptPayloadParallel(reader, keys, expectedLength);
+            return;
         }
+        byte[] ciphertext = new byte[BUFFER_SIZE];
+        byte[] plaintext = new byte[Math.max(expectedLength, BLOCK_SIZE)];
+        int length = 0;
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            Mac mac = crypto.getMac(keys.getHmacKey());
+            Cipher cipher = crypto.getCipher(Cipher.DECRYPT_MODE, keys.getCipherKey(), keys.getIv());
+            long time = System.nanoTime();
+            for (int n; (n = reader.readCiphertext(ciphertext, 0, ciphertext.length)) >= 0; ) {
+                time = timings.lap(Phase.HEX_DECODE, time);
+                mac.update(ciphertext, 0, n);
+                time = timings.lap(Phase.HMAC, time);
+                if (length + n > plaintext.length) {
+                    plaintext = grow(plaintext, length + n);
+                }
+                length += cipher.update(ciphertext, 0, n, plaintext, length);
+                time = timings.lap(Phase.DECRYPT, time);
+            }
+            time = timings.lap(Phase.HEX_DECODE, time);
+            length += cipher.doFinal(plaintext, length);
+            time = timings.lap(Phase.DECRYPT, time);
+            checkHmac(reader.getExpectedHmac(), mac.doFinal());
+            timings.lap(Phase.HMAC, time);
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            Arrays.fill(plaintext, (byte) 0x00);
+            throw e;
+        }
+
+        this.payload = plaintext;
+        this.payloadOffset = 0;
+        this.payloadLength = length - getPadding(plaintext, length);
     }
 
-    private void decryptPayload(AnsibleVaultEncryptionKeys keys, byte[] ciphertext) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-        cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
-        this.payload = cipher.doFinal(ciphertext);
+    /**
+     * Verify the whole ciphertext first, then decrypt it in place on several cores. Used for large Vaults, for which
+     * the available length of the stream or file is a good estimate of the length of the ciphertext.
+     */
+    private void decryptPayloadParallel(AnsibleVaultPayloadReader reader, AnsibleVaultEncryptionKeys keys, int expectedLength) throws IOException, GeneralSecurityException {
+        byte[] buffer = new byte[expectedLength];
+        int length = 0;
+        try {
+            long time = System.nanoTime();
+            for (int n; ; length += n) {
+                if (length == buffer.length) {
+                    buffer = grow(buffer, length + BUFFER_SIZE);
+                }
+                n = reader.readCiphertext(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    break;
+                }
+            }
+            time = timings.lap(Phase.HEX_DECODE, time);
+            try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+                Mac mac = crypto.getMac(keys.getHmacKey());
+                mac.update(buffer, 0, length);
+                checkHmac(reader.getExpectedHmac(), mac.doFinal());
+            }
+            time = timings.lap(Phase.HMAC, time);
+            AnsibleVaultParallelDecryptor.decrypt(keys, buffer, length, pool);
+            timings.lap(Phase.DECRYPT, time);
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            Arrays.fill(buffer, (byte) 0x00);
+            throw e;
+        }
+
+        this.payload = buffer;
         this.payloadOffset = 0;
-        this.payloadLength = this.payload.length;
+        this.payloadLength = length - getPadding(buffer, length);
+    }
 
-        // Cipher did not strip PKCS5Padding on OpenJDK, do in application
-        int padding = this.payload[this.payloadLength - 1];
-        if (padding <= cipher.getBlockSize() && padding > 0) {
-            this.payloadLength -= padding;
+    private static byte[] grow(byte[] buffer, int minLength) {
+        byte[] grown = Arrays.copyOf(buffer, Math.max(buffer.length * 2, minLength));
+        Arrays.fill(buffer, (byte) 0x00);
+        return grown;
+    }
+
+    private void verifyHmac(AnsibleVaultPayloadReader reader, AnsibleVaultEncryptionKeys keys) throws IOException, GeneralSecurityException {
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            Mac mac = crypto.getMac(keys.getHmacKey());
+            byte[] ciphertext = new byte[BUFFER_SIZE];
+            long time = System.nanoTime();
+            for (int n; (n = reader.readCiphertext(ciphertext, 0, ciphertext.length)) >= 0; ) {
+                time = timings.lap(Phase.HEX_DECODE, time);
+                mac.update(ciphertext, 0, n);
+                time = timings.lap(Phase.HMAC, time);
+            }
+            time = timings.lap(Phase.HEX_DECODE, time);
+            checkHmac(reader.getExpectedHmac(), mac.doFinal());
+            timings.lap(Phase.HMAC, time);
         }
     }
 
-    private String findExpectedHeader(String expected) {
-        final String actual = new String(rawContents, rawOffset, Math.min(expected.length(), rawLength - rawOffset));
-        if (expected.equals(actual)) {
-            rawOffset += actual.length();
-            return actual;
+    static void checkHmac(byte[] expectedHmac, byte[] actualHmac) throws SignatureException {
+        if (!MessageDigest.isEqual(actualHmac, expectedHmac)) {
+            throw new SignatureException("HMAC does not match, either the given password is invalid or the file has been modified");
         }
-        return null;
     }
 
-    private String findUntilNextLineBreak() {
-        for (int i = rawOffset; i < rawLength; i++) {
-            if (rawContents[i] == '\n' || rawContents[i] == '\r') {
-                int startOffset = rawOffset;
-                rawOffset = i + 1;
-                return new String(rawContents, startOffset, i - startOffset);
-            }
+    /**
+     * Cipher did not strip PKCS5Padding on OpenJDK, do in application
+     */
+    static int getPadding(byte[] plaintext, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int padding = plaintext[length - 1];
+        if (padding <= BLOCK_SIZE && padding > 0 && padding <= length) {
+            return padding;
         }
-        return null;
+        return 0;
     }
 
-    private void stripRemainingLineBreaks() {
-        int lowMark = rawOffset;
-        for (int highMark = rawOffset; highMark < rawLength; highMark++) {
-            if (rawContents[highMark] != '\n' && rawContents[highMark] != '\r') {
-                rawContents[lowMark] = rawContents[highMark];
-                lowMark++;
+    /**
+     * Decrypt the next chunk of ciphertext when decrypting on the fly. The last block is held back until the end of
+     * the Vault has been reached, because it may contain padding.
+     *
+     * @return false if the end of the plaintext has been reached
+     */
+    private boolean fill() throws IOException {
+        if (reader == null) {
+            return false;
+        }
+
+        // move the held back block to the start of the buffer
+        int held = payloadFill - payloadLength;
+        System.arraycopy(payload, payloadLength, payload, 0, held);
+        payloadOffset = 0;
+        payloadLength = 0;
+        payloadFill = held;
+
+        try {
+            while (payloadLength == 0) {
+                long time = System.nanoTime();
+                int n = reader.readCiphertext(ciphertext, 0, ciphertext.length);
+                time = timings.lap(Phase.HEX_DECODE, time);
+                if (n < 0) {
+                    finish();
+                    return payloadLength > 0;
+                }
+                mac.update(ciphertext, 0, n);
+                time = timings.lap(Phase.HMAC, time);
+                payloadFill += cipher.update(ciphertext, 0, n, payload, payloadFill);
+                timings.lap(Phase.DECRYPT, time);
+                payloadLength = Math.max(0, payloadFill - BLOCK_SIZE);
             }
+            return true;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void finish() throws IOException, GeneralSecurityException {
+        long time = System.nanoTime();
+        payloadFill += cipher.doFinal(payload, payloadFill);
+        payloadLength = payloadFill - getPadding(payload, payloadFill);
+        time = timings.lap(Phase.DECRYPT, time);
+        reader = null;
+        try {
+            checkHmac(expectedHmac, mac.doFinal());
+            timings.lap(Phase.HMAC, time);
+        } catch (SignatureException e) {
+            Arrays.fill(payload, (byte) 0x00);
+            payloadLength = 0;
+            throw new IOException("the vault has been modified while reading", e);
         }
-        rawLength = lowMark;
+    }
+
+    /**
+     * @return the time spent reading this Vault so far
+     */
+    public AnsibleVaultTimings getTimings() {
+        return timings;
     }
 
     @Override
     public int read() throws IOException {
-        if (payloadOffset >= payloadLength) {
+        if (payloadOffset >= payloadLength && !fill()) {
             return -1;
         }
-        return payload[payloadOffset++];
+        return payload[payloadOffset++] & 0xFF;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        if (payloadOffset >= payloadLength) {
+        if (payloadOffset >= payloadLength && !fill()) {
             return -1;
         }
         int realLen = Math.min(len, payloadLength - payloadOffset);
@@ -178,10 +432,21 @@ public class AnsibleVaultInputStream extends InputStream {
         if (payload != null) {
             Arrays.fill(payload, (byte) 0x00);
             payload = null;
-            vaultStream.close();
+            reader = null;
+            if (vault != null) {
+                vault.close();
+            }
         }
     }
 
+    /**
+     * Opens the Vault for one pass
+     */
+    @FunctionalInterface
+    private interface ReaderSource {
+        AnsibleVaultPayloadReader open() throws IOException;
+    }
+
     /**
      * Check if the current JVM is capable of handling the Ansible Vault crypto. Users of Oracle JavaSE may need to
      * install the "Unlimited Strength Jurisdiction Policy Files".
@@ -0,0 +1,262 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the keys derived from a Vault password and salt. Deriving the keys takes 10,000 rounds of PBKDF2,
+ * which would otherwise be repeated whenever the same Vault is read again, e.g. when an application context is
+ * refreshed or a test context is restarted.
+ * <p>
+ * Entries are keyed by the salt and a keyed fingerprint of the password, so the password itself is never retained.
+ * Key material is zeroized when an entry is evicted and when the cache is closed. Callers always receive a copy of
+ * the cached keys, which they may destroy independently.
+ * <p>
+ * Keys which are not held yet can be looked up in an {@link AnsibleVaultPersistentKeyCache} before they are derived,
+ * so that they survive a restart of the JVM.
+ *
+ * @see #getDefault()
+ */
+public final class AnsibleVaultKeyCache implements AutoCloseable {
+    private static final int DEFAULT_MAXIMUM_SIZE = 64;
+    private static final AnsibleVaultKeyCache DEFAULT = new AnsibleVaultKeyCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final int maximumSize;
+    private final SecretKeySpec fingerprintKey;
+    private final Map<CacheKey, AnsibleVaultEncryptionKeys> entries;
+    private final Map<CacheKey, CompletableFuture<Void>> pending = new HashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private volatile AnsibleVaultPersistentKeyCache persistentCache;
+
+    /**
+     * @param maximumSize the maximum number of derived keys to keep, 0 disables caching
+     */
+    public AnsibleVaultKeyCache(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximum size must not be negative");
+        }
+        this.maximumSize = maximumSize;
+
+        byte[] randomKey = new byte[32];
+        new SecureRandom().nextBytes(randomKey);
+        this.fingerprintKey = new SecretKeySpec(randomKey, "HmacSHA256");
+        Arrays.fill(randomKey, (byte) 0x00);
+
+        this.entries = new LinkedHashMap<CacheKey, AnsibleVaultEncryptionKeys>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, AnsibleVaultEncryptionKeys> eldest) {
+                if (size() > AnsibleVaultKeyCache.this.maximumSize) {
+                    eldest.getValue().destroy();
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the process-wide cache used by {@link AnsibleVaultInputStream}
+     */
+    public static AnsibleVaultKeyCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param persistentCache consulted before keys are derived, or null
+     */
+    public void setPersistentCache(AnsibleVaultPersistentKeyCache persistentCache) {
+        this.persistentCache = persistentCache;
+    }
+
+    public AnsibleVaultPersistentKeyCache getPersistentCache() {
+        return persistentCache;
+    }
+
+    /**
+     * Concurrent requests for the same keys wait for a single derivation, e.g. when several Vaults with the same salt
+     * are read in parallel.
+     */
+    AnsibleVaultEncryptionKeys getKeys(char[] password, byte[] salt) throws GeneralSecurityException {
+        byte[] fingerprint = fingerprint(password);
+        if (maximumSize == 0) {
+            missCount.incrementAndGet();
+            return derive(password, fingerprint, salt);
+        }
+        CacheKey cacheKey = new CacheKey(salt, fingerprint);
+        while (true) {
+            CompletableFuture<Void> derivation;
+            synchronized (entries) {
+                AnsibleVaultEncryptionKeys cached = entries.get(cacheKey);
+                if (cached != null) {
+                    hitCount.incrementAndGet();
+                    AnsibleVaultPersistentKeyCache persistentCache = this.persistentCache;
+                    if (persistentCache != null) {
+                        persistentCache.markUsed(salt);
+                    }
+                    return cached.copy();
+                }
+                derivation = pending.get(cacheKey);
+                if (derivation == null) {
+                    pending.put(cacheKey, new CompletableFuture<>());
+                }
+            }
+            if (derivation == null) {
+                return deriveAndCache(password, fingerprint, salt, cacheKey);
+            }
+            // look up the keys again once they have been derived, or derive them if that has failed
+            derivation.handle((result, failure) -> null).join();
+        }
+    }
+
+    private AnsibleVaultEncryptionKeys deriveAndCache(char[] password, byte[] fingerprint, byte[] salt, CacheKey cacheKey) throws GeneralSecurityException {
+        missCount.incrementAndGet();
+        try {
+            // Derive outside the lock, so that different Vaults can be opened concurrently
+            AnsibleVaultEncryptionKeys derived = derive(password, fingerprint, salt);
+            synchronized (entries) {
+                AnsibleVaultEncryptionKeys cached = entries.putIfAbsent(cacheKey, derived);
+                if (cached != null) {
+                    derived.destroy();
+                    return cached.copy();
+                }
+                return derived.copy();
+            }
+        } finally {
+            CompletableFuture<Void> derivation;
+            synchronized (entries) {
+                derivation = pending.remove(cacheKey);
+            }
+            derivation.complete(null);
+        }
+    }
+
+    private AnsibleVaultEncryptionKeys derive(char[] password, byte[] fingerprint, byte[] salt) throws GeneralSecurityException {
+        AnsibleVaultPersistentKeyCache persistentCache = this.persistentCache;
+        if (persistentCache == null) {
+            return new AnsibleVaultEncryptionKeys(password, salt);
+        }
+        AnsibleVaultEncryptionKeys keys = persistentCache.load(password, fingerprint, salt);
+        if (keys == null) {
+            keys = new AnsibleVaultEncryptionKeys(password, salt);
+            persistentCache.store(password, fingerprint, salt, keys);
+        }
+        return keys;
+    }
+
+    private byte[] fingerprint(char[] password) throws GeneralSecurityException {
+        ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            Mac mac = crypto.getMac(fingerprintKey);
+            mac.update(passwordBytes);
+            return mac.doFinal();
+        } finally {
+            Arrays.fill(passwordBytes.array(), (byte) 0x00);
+        }
+    }
+
+    /**
+     * @return the number of lookups which could be answered without deriving the keys
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups which required deriving the keys
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries which have been removed because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the number of derived keys currently held
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Zeroize and remove all cached keys. The cache remains usable afterwards.
+     */
+    public void clear() {
+        synchronized (entries) {
+            for (Iterator<AnsibleVaultEncryptionKeys> it = entries.values().iterator(); it.hasNext(); ) {
+                it.next().destroy();
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private static final class CacheKey {
+        private final byte[] salt;
+        private final byte[] passwordFingerprint;
+        private final int hashCode;
+
+        CacheKey(byte[] salt, byte[] passwordFingerprint) {
+            this.salt = salt.clone();
+            this.passwordFingerprint = passwordFingerprint;
+            this.hashCode = 31 * Arrays.hashCode(salt) + Arrays.hashCode(passwordFingerprint);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return Arrays.equals(salt, other.salt) && Arrays.equals(passwordFingerprint, other.passwordFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
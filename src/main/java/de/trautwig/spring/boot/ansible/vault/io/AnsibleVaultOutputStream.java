@@ -0,0 +1,224 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static de.trautwig.spring.boot.ansible.vault.io.Hexlify.hexlifyAscii;
+
+/**
+ * Writes a file in "Ansible Vault" format, which can be decrypted with "ansible-vault" as well as
+ * {@link AnsibleVaultInputStream}. A new random salt is used for every Vault.
+ * <p>
+ * The plaintext is padded, encrypted and authenticated while it is written. Because the HMAC precedes the ciphertext
+ * in the Vault format, the ciphertext is kept in memory until the stream is closed. Only then is the Vault written
+ * to the underlying stream, hex-encoded and wrapped at 80 columns like "ansible-vault" does.
+ * <p>
+ * If a vault-id is given, the Vault is written in format 1.2, which labels the password it has been encrypted with.
+ * <p>
+ * See https://docs.ansible.com/ansible/latest/user_guide/vault.html#vault-format
+ */
+public class AnsibleVaultOutputStream extends OutputStream {
+    private static final int SALT_LENGTH = 32;
+    private static final int BLOCK_SIZE = 16;
+    private static final int LINE_LENGTH = 80;
+    private static final int CHUNK_SIZE = 4096;
+    private static final SecureRandom random = new SecureRandom();
+    // printable ASCII characters, except the header separator
+    private static final Pattern VAULT_ID = Pattern.compile("[\\x21-\\x3a\\x3c-\\x7e]+");
+
+    private final OutputStream out;
+    private final String vaultId;
+    private final byte[] salt;
+    private final Cipher cipher;
+    private final Mac mac;
+    private byte[] ciphertext = new byte[CHUNK_SIZE];
+    private int ciphertextLength;
+    private boolean closed;
+
+    public AnsibleVaultOutputStream(OutputStream out, char[] password) throws GeneralSecurityException {
+        this(out, password, (String) null);
+    }
+
+    /**
+     * @param vaultId the label of the password, or null to write a Vault in format 1.1
+     */
+    public AnsibleVaultOutputStream(OutputStream out, char[] password, String vaultId) throws GeneralSecurityException {
+        this(out, password, vaultId, newSalt());
+    }
+
+    AnsibleVaultOutputStream(OutputStream out, char[] password, byte[] salt) throws GeneralSecurityException {
+        this(out, password, null, salt);
+    }
+
+    AnsibleVaultOutputStream(OutputStream out, char[] password, String vaultId, byte[] salt) throws GeneralSecurityException {
+        if (vaultId != null && !VAULT_ID.matcher(vaultId).matches()) {
+            throw new IllegalArgumentException("invalid vault-id: " + vaultId);
+        }
+        this.out = out;
+        this.vaultId = vaultId;
+        this.salt = salt;
+
+        AnsibleVaultEncryptionKeys keys = new AnsibleVaultEncryptionKeys(password, salt);
+        try {
+            cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(keys.getHmacKey());
+        } finally {
+            keys.destroy();
+        }
+    }
+
+    private static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        encrypt(b, off, len);
+    }
+
+    private void encrypt(byte[] b, int off, int len) throws IOException {
+        if (ciphertextLength + len > ciphertext.length) {
+            byte[] grown = Arrays.copyOf(ciphertext, Math.max(ciphertext.length * 2, ciphertextLength + len));
+            Arrays.fill(ciphertext, (byte) 0x00);
+            ciphertext = grown;
+        }
+        try {
+            int n = cipher.update(b, off, len, ciphertext, ciphertextLength);
+            mac.update(ciphertext, ciphertextLength, n);
+            ciphertextLength += n;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing can be written before the stream is closed
+    }
+
+    /**
+     * Pad and encrypt the remaining plaintext, then write the complete Vault and close the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            // PKCS7 padding, always at least one byte
+            byte[] padding = new byte[BLOCK_SIZE - ciphertextLength % BLOCK_SIZE];
+            Arrays.fill(padding, (byte) padding.length);
+            encrypt(padding, 0, padding.length);
+            cipher.doFinal();
+            writeVault(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        } finally {
+            Arrays.fill(ciphertext, (byte) 0x00);
+            out.close();
+        }
+    }
+
+    private void writeVault(byte[] hmac) throws IOException {
+        String header = vaultId != null ? "$ANSIBLE_VAULT;1.2;AES256;" + vaultId + "\n" : "$ANSIBLE_VAULT;1.1;AES256\n";
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+
+        LineWrappingHexWriter body = new LineWrappingHexWriter();
+        body.write(hex(salt));
+        body.write('\n');
+        body.write(hex(hmac));
+        body.write('\n');
+        byte[] chunk = new byte[2 * CHUNK_SIZE];
+        for (int offset = 0; offset < ciphertextLength; offset += CHUNK_SIZE) {
+            int len = Math.min(CHUNK_SIZE, ciphertextLength - offset);
+            body.write(chunk, hexlifyAscii(ciphertext, offset, len, chunk, 0));
+        }
+        body.finish();
+    }
+
+    private static byte[] hex(byte[] data) {
+        byte[] result = new byte[2 * data.length];
+        hexlifyAscii(data, 0, data.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Hex-encodes the payload once more and writes it to the underlying stream, with a line break every 80 digits
+     */
+    private final class LineWrappingHexWriter {
+        private final byte[] buffer = new byte[(LINE_LENGTH + 1) * 64];
+        private int bufferLength;
+        private int column;
+
+        void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 1);
+        }
+
+        void write(byte[] data) throws IOException {
+            write(data, data.length);
+        }
+
+        void write(byte[] data, int len) throws IOException {
+            for (int i = 0; i < len; i++) {
+                if (bufferLength + 3 > buffer.length) {
+                    drain();
+                }
+                bufferLength += hexlifyAscii(data, i, 1, buffer, bufferLength);
+                column += 2;
+                if (column == LINE_LENGTH) {
+                    buffer[bufferLength++] = '\n';
+                    column = 0;
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            if (column > 0) {
+                buffer[bufferLength++] = '\n';
+            }
+            drain();
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer, 0, bufferLength);
+            bufferLength = 0;
+        }
+    }
+}
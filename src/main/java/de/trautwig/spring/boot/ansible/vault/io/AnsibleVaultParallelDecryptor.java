@@ -0,0 +1,128 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decrypts large ciphertexts on several cores. In counter mode each block is encrypted independently, so the
+ * ciphertext is split into segments at block boundaries, and each segment is decrypted on a {@link ForkJoinPool} with
+ * the counter value of its first block.
+ * <p>
+ * Below {@link #PARALLEL_THRESHOLD} bytes, or with a single core, the ciphertext is decrypted sequentially: AES-CTR
+ * runs at more than a gigabyte per second on a single core, so smaller ciphertexts are decrypted before the tasks
+ * would be scheduled (see ParallelDecryptionBenchmark in the benchmarks module).
+ */
+class AnsibleVaultParallelDecryptor {
+    static final int PARALLEL_THRESHOLD = 1024 * 1024;
+    static final int MIN_SEGMENT_SIZE = 256 * 1024;
+
+    private static final int BLOCK_SIZE = 16;
+
+    private AnsibleVaultParallelDecryptor() {
+    }
+
+    /**
+     * @return true if a ciphertext of the given length is decrypted faster on the pool than by a single Cipher
+     */
+    static boolean isWorthwhile(long length, ForkJoinPool pool) {
+        return length >= PARALLEL_THRESHOLD && pool.getParallelism() >= 2;
+    }
+
+    /**
+     * Decrypt the ciphertext in place, on the pool if that is worthwhile
+     *
+     * @return the number of bytes decrypted, i.e. the given length
+     */
+    static int decrypt(AnsibleVaultEncryptionKeys keys, byte[] buffer, int length, ForkJoinPool pool) throws GeneralSecurityException {
+        if (!isWorthwhile(length, pool)) {
+            return decryptSegment(keys, buffer, 0, length);
+        }
+        return decryptSegments(keys, buffer, length, pool);
+    }
+
+    /**
+     * Decrypt the ciphertext in place on the given pool, regardless of its length
+     */
+    static int decryptSegments(AnsibleVaultEncryptionKeys keys, byte[] buffer, int length, ForkJoinPool pool) throws GeneralSecurityException {
+        // a few segments per core, so that a slow core does not delay the result
+        int segments = Math.max(1, Math.min(pool.getParallelism() * 4, length / MIN_SEGMENT_SIZE));
+        int segmentSize = Math.max(BLOCK_SIZE, (length / segments + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE);
+        try {
+            pool.invoke(new DecryptTask(keys, buffer, 0, length, segmentSize));
+        } catch (DecryptionFailedException e) {
+            throw e.getCause();
+        }
+        return length;
+    }
+
+    private static int decryptSegment(AnsibleVaultEncryptionKeys keys, byte[] buffer, int offset, int length) throws GeneralSecurityException {
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            Cipher cipher = crypto.getCipher(Cipher.DECRYPT_MODE, keys.getCipherKey(),
+                    AnsibleVaultSeekableChannel.getCounter(keys.getIv(), offset / BLOCK_SIZE));
+            return cipher.doFinal(buffer, offset, length, buffer, offset);
+        }
+    }
+
+    /**
+     * Splits its range in halves at a segment boundary until it fits into a single segment
+     */
+    private static class DecryptTask extends RecursiveAction {
+        private final AnsibleVaultEncryptionKeys keys;
+        private final byte[] buffer;
+        private final int offset;
+        private final int length;
+        private final int segmentSize;
+
+        DecryptTask(AnsibleVaultEncryptionKeys keys, byte[] buffer, int offset, int length, int segmentSize) {
+            this.keys = keys;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (length <= segmentSize) {
+                try {
+                    decryptSegment(keys, buffer, offset, length);
+                } catch (GeneralSecurityException e) {
+                    throw new DecryptionFailedException(e);
+                }
+                return;
+            }
+            int half = (length / segmentSize + 1) / 2 * segmentSize;
+            invokeAll(new DecryptTask(keys, buffer, offset, half, segmentSize),
+                    new DecryptTask(keys, buffer, offset + half, length - half, segmentSize));
+        }
+    }
+
+    private static class DecryptionFailedException extends RuntimeException {
+
+        DecryptionFailedException(GeneralSecurityException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized GeneralSecurityException getCause() {
+            return (GeneralSecurityException) super.getCause();
+        }
+    }
+}
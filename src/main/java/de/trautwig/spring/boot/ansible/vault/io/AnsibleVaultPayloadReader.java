@@ -0,0 +1,253 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static de.trautwig.spring.boot.ansible.vault.io.Hexlify.unhexlify;
+
+/**
+ * Incrementally parses a file in "Ansible Vault" format. The header, salt and HMAC are read when the reader is
+ * created; the ciphertext is then hex-decoded on demand through fixed-size buffers, so that the Vault never has to
+ * be held in memory as a whole.
+ * <p>
+ * The payload of a Vault is hex-encoded twice: the file body is the hex representation of three lines, which contain
+ * the hex representation of the salt, the HMAC and the ciphertext.
+ * <p>
+ * A Vault which has been mapped into memory is decoded straight from the mapped buffer, without copying the file
+ * contents into the heap first.
+ * <p>
+ * Both format 1.1 and format 1.2 are supported. They only differ in the header, where format 1.2 adds a vault-id,
+ * i.e. a label for the password the Vault has been encrypted with.
+ */
+class AnsibleVaultPayloadReader implements Closeable {
+    private static final String FORMAT_ID = "$ANSIBLE_VAULT;";
+    private static final String VERSION_1_1 = "1.1";
+    private static final String VERSION_1_2 = "1.2";
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private final InputStream vaultStream;
+    private final HexDecodingInputStream payloadStream;
+    private final HexDecodingInputStream ciphertextStream;
+    private final byte[] salt;
+    private final byte[] expectedHmac;
+    private String vaultId;
+
+    AnsibleVaultPayloadReader(InputStream vaultStream) throws IOException {
+        this.vaultStream = vaultStream;
+        readHeader(vaultStream);
+
+        payloadStream = new HexDecodingInputStream(vaultStream);
+        salt = unhexlify(readPayloadLine("cannot determine end of salt"));
+        expectedHmac = unhexlify(readPayloadLine("cannot determine end of HMAC"));
+        ciphertextStream = new HexDecodingInputStream(payloadStream);
+    }
+
+    /**
+     * @param vault the contents of the Vault, from its position to its limit. The buffer itself is not modified.
+     */
+    AnsibleVaultPayloadReader(ByteBuffer vault) throws IOException {
+        this.vaultStream = null;
+        ByteBuffer body = vault.duplicate();
+        readHeader(body);
+
+        payloadStream = new HexDecodingInputStream(body);
+        salt = unhexlify(readPayloadLine("cannot determine end of salt"));
+        expectedHmac = unhexlify(readPayloadLine("cannot determine end of HMAC"));
+        ciphertextStream = new HexDecodingInputStream(payloadStream);
+    }
+
+    private void readHeader(InputStream in) throws IOException {
+        byte[] header = new byte[MAX_LINE_LENGTH];
+        int length = 0;
+        boolean terminated = false;
+        for (int chr = in.read(); chr >= 0 && length < header.length; chr = in.read()) {
+            if (chr == '\n' || chr == '\r') {
+                terminated = true;
+                break;
+            }
+            header[length++] = (byte) chr;
+        }
+        parseHeader(header, length, terminated);
+    }
+
+    private void readHeader(ByteBuffer in) throws IOException {
+        byte[] header = new byte[MAX_LINE_LENGTH];
+        int length = 0;
+        boolean terminated = false;
+        while (in.hasRemaining() && length < header.length) {
+            byte chr = in.get();
+            if (chr == '\n' || chr == '\r') {
+                terminated = true;
+                break;
+            }
+            header[length++] = chr;
+        }
+        parseHeader(header, length, terminated);
+    }
+
+    private void parseHeader(byte[] header, int length, boolean terminated) throws IOException {
+        String line = new String(header, 0, length, StandardCharsets.US_ASCII);
+
+        if (!line.startsWith(FORMAT_ID)) {
+            throw new IOException("header " + FORMAT_ID + " expected");
+        }
+        String[] fields = line.substring(FORMAT_ID.length()).split(";", -1);
+        String version = fields[0];
+        if (!VERSION_1_1.equals(version) && !VERSION_1_2.equals(version)) {
+            throw new IOException("header version " + VERSION_1_1 + " or " + VERSION_1_2 + " expected");
+        }
+        if (!terminated || fields.length < 2) {
+            throw new IOException("Crypto algorithm header not found");
+        }
+        String algorithm = fields[1];
+        if (!"AES256".equals(algorithm)) {
+            throw new IOException("Unsupported crypto algorithm: " + algorithm);
+        }
+        if (VERSION_1_2.equals(version)) {
+            if (fields.length < 3 || fields[2].trim().isEmpty()) {
+                throw new IOException("vault-id header not found");
+            }
+            vaultId = fields[2].trim();
+        }
+    }
+
+    private String readPayloadLine(String errorMessage) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        for (int chr = payloadStream.read(); chr >= 0; chr = payloadStream.read()) {
+            if (chr == '\n' || chr == '\r') {
+                if (line.length() > 0) {
+                    return line.toString();
+                }
+            } else if (line.length() < MAX_LINE_LENGTH) {
+                line.append((char) chr);
+            } else {
+                break;
+            }
+        }
+        throw new IOException(errorMessage);
+    }
+
+    /**
+     * Get the label of the password used for this Vault
+     *
+     * @return the vault-id, or null if the Vault is in format 1.1
+     */
+    String getVaultId() {
+        return vaultId;
+    }
+
+    /**
+     * Get the salt used for deriving the keys of this Vault
+     */
+    byte[] getSalt() {
+        return salt;
+    }
+
+    /**
+     * Get the HMAC of the ciphertext, as stored in the Vault
+     */
+    byte[] getExpectedHmac() {
+        return expectedHmac;
+    }
+
+    /**
+     * Read the next chunk of ciphertext
+     *
+     * @return the number of bytes read, or -1 at the end of the Vault
+     */
+    int readCiphertext(byte[] b, int off, int len) throws IOException {
+        return ciphertextStream.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (vaultStream != null) {
+            vaultStream.close();
+        }
+    }
+
+    /**
+     * Decodes hexadecimal digits from the underlying stream or buffer, skipping any line breaks
+     */
+    private static final class HexDecodingInputStream extends InputStream {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final InputStream source;
+        private final ByteBuffer buffer;
+        private final byte[] single = new byte[1];
+        private boolean endOfStream;
+
+        HexDecodingInputStream(InputStream source) {
+            this.source = source;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            ((Buffer) buffer).limit(0);
+        }
+
+        /**
+         * Decode the digits directly from the given buffer, which is consumed
+         */
+        HexDecodingInputStream(ByteBuffer source) {
+            this.source = null;
+            this.buffer = source;
+            this.endOfStream = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer output = ByteBuffer.wrap(b, off, len);
+            int count = 0;
+            while (output.hasRemaining()) {
+                count += Hexlify.unhexlify(buffer, output);
+                if (output.hasRemaining() && !fill()) {
+                    if (count == 0 && buffer.hasRemaining()) {
+                        throw new IOException("buffer underflow");
+                    }
+                    break;
+                }
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        private boolean fill() throws IOException {
+            if (endOfStream) {
+                return false;
+            }
+            buffer.compact();
+            int n = source.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (n < 0) {
+                endOfStream = true;
+            } else {
+                ((Buffer) buffer).position(buffer.position() + n);
+            }
+            ((Buffer) buffer).flip();
+            return n >= 0;
+        }
+    }
+}
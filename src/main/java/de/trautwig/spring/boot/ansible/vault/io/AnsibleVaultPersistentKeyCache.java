@@ -0,0 +1,445 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the keys derived from Vault passwords in a file, so that the 10,000 rounds of PBKDF2 for each Vault are not
+ * repeated whenever the JVM is restarted. Used by an {@link AnsibleVaultKeyCache} for keys it does not hold yet.
+ * <p>
+ * Entries are keyed by the salt of the Vault, so that a Vault which has been encrypted again is looked up with its
+ * new salt. Each entry is encrypted with AES-GCM, using either
+ * <ul>
+ * <li>a key derived from the Vault password with a random salt of the cache. This takes the same 10,000 rounds of
+ * PBKDF2 once per password, so that the cache file does not make it easier to guess the password.</li>
+ * <li>or a key file with at least 32 random bytes, e.g. provided by the platform the application runs on. Nothing
+ * needs to be derived then.</li>
+ * </ul>
+ * An entry can only be decrypted with the password it has been derived from. Entries which cannot be decrypted are
+ * ignored, and replaced once the keys have been derived again.
+ * <p>
+ * On POSIX file systems, the cache file and the key file must only be accessible by their owner. The cache file is
+ * rewritten whenever keys are added, or only once {@link #flush()} is called after {@link #deferWrites()}, so that
+ * loading many Vaults writes it once. {@link #retainUsed()} removes the entries of Vaults which no longer exist.
+ */
+public final class AnsibleVaultPersistentKeyCache implements AutoCloseable {
+    private static final String HEADER = "$ANSIBLE_VAULT_KEY_CACHE;1.0";
+    private static final String PASSWORD_MODE = "PASSWORD";
+    private static final String KEY_FILE_MODE = "KEYFILE";
+    private static final int SALT_LENGTH = 32;
+    private static final int MIN_KEY_FILE_LENGTH = 32;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+
+    private final SecureRandom random = new SecureRandom();
+    private final Path file;
+    private final String mode;
+    // the salt of the cache when protected by password, or a check value of the key file
+    private final byte[] modeParameter;
+    private final AnsibleVaultEncryptionKeys keyFileProtection;
+    private final Map<ByteBuffer, AnsibleVaultEncryptionKeys> passwordProtection = new HashMap<>();
+    private final Map<String, String> entries = new LinkedHashMap<>();
+    private final Set<String> used = new HashSet<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong writeFailureCount = new AtomicLong();
+    private volatile IOException lastWriteFailure;
+    private boolean deferred;
+    private boolean modified;
+
+    private AnsibleVaultPersistentKeyCache(Path file, AnsibleVaultEncryptionKeys keyFileProtection) throws IOException, GeneralSecurityException {
+        this.file = file;
+        this.keyFileProtection = keyFileProtection;
+        if (keyFileProtection != null) {
+            this.mode = KEY_FILE_MODE;
+            this.modeParameter = Arrays.copyOf(hmac(keyFileProtection, HEADER.getBytes(StandardCharsets.US_ASCII)), 8);
+        } else {
+            this.mode = PASSWORD_MODE;
+            this.modeParameter = new byte[SALT_LENGTH];
+            random.nextBytes(modeParameter);
+        }
+        if (Files.exists(file)) {
+            checkPermissions(file);
+            read();
+        }
+    }
+
+    /**
+     * Open a cache which is protected by the Vault passwords
+     *
+     * @param file the cache file, which is created once keys are added
+     * @throws IOException if the file can be accessed by others
+     */
+    public static AnsibleVaultPersistentKeyCache open(Path file) throws IOException {
+        try {
+            return new AnsibleVaultPersistentKeyCache(file, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Open a cache which is protected by a key file
+     *
+     * @param file    the cache file, which is created once keys are added
+     * @param keyFile a file with at least 32 random bytes
+     * @throws IOException if the key file cannot be read, or either file can be accessed by others
+     */
+    public static AnsibleVaultPersistentKeyCache open(Path file, Path keyFile) throws IOException {
+        checkPermissions(keyFile);
+        byte[] key = Files.readAllBytes(keyFile);
+        try {
+            if (key.length < MIN_KEY_FILE_LENGTH) {
+                throw new IOException("key file must contain at least " + MIN_KEY_FILE_LENGTH + " bytes: " + keyFile);
+            }
+            return new AnsibleVaultPersistentKeyCache(file, expand(key));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        } finally {
+            Arrays.fill(key, (byte) 0x00);
+        }
+    }
+
+    /**
+     * Expand the contents of the key file into a key for encrypting the entries and a key for binding them to the
+     * password
+     */
+    private static AnsibleVaultEncryptionKeys expand(byte[] key) throws GeneralSecurityException {
+        AnsibleVaultEncryptionKeys.RawSecretKey keyFileKey = new AnsibleVaultEncryptionKeys.RawSecretKey(key.clone(), "HmacSHA256");
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(keyFileKey);
+        keyFileKey.destroy();
+        byte[] expanded = new byte[AnsibleVaultEncryptionKeys.DERIVED_KEY_LENGTH];
+        byte[] block = new byte[0];
+        for (int offset = 0, counter = 1; offset < expanded.length; offset += block.length, counter++) {
+            mac.update(block);
+            mac.update((byte) counter);
+            Arrays.fill(block, (byte) 0x00);
+            block = mac.doFinal();
+            System.arraycopy(block, 0, expanded, offset, Math.min(block.length, expanded.length - offset));
+        }
+        Arrays.fill(block, (byte) 0x00);
+        return new AnsibleVaultEncryptionKeys(expanded);
+    }
+
+    /**
+     * @param passwordFingerprint identifies the password within this JVM, see {@link AnsibleVaultKeyCache}
+     * @return the keys derived from the password and salt, or null if they are not in the cache
+     */
+    synchronized AnsibleVaultEncryptionKeys load(char[] password, byte[] passwordFingerprint, byte[] salt) {
+        String sealed = entries.get(hex(salt));
+        if (sealed != null) {
+            try {
+                AnsibleVaultEncryptionKeys protection = getProtection(password, passwordFingerprint);
+                byte[] derivedKey = unseal(protection, password, salt, sealed);
+                used.add(hex(salt));
+                hitCount.incrementAndGet();
+                return new AnsibleVaultEncryptionKeys(derivedKey);
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                // derived from another password, or corrupted
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add keys which have just been derived, and write the cache file unless writes are deferred. Failures to write the
+     * file are only counted, since the keys can still be used.
+     */
+    synchronized void store(char[] password, byte[] passwordFingerprint, byte[] salt, AnsibleVaultEncryptionKeys keys) throws GeneralSecurityException {
+        String saltHex = hex(salt);
+        entries.put(saltHex, seal(getProtection(password, passwordFingerprint), password, salt, keys));
+        used.add(saltHex);
+        modified();
+    }
+
+    /**
+     * Keep the keys for the given salt, which are still held by an {@link AnsibleVaultKeyCache}
+     */
+    synchronized void markUsed(byte[] salt) {
+        used.add(hex(salt));
+    }
+
+    /**
+     * Remove the entries which have not been used since the cache has been opened, e.g. because a Vault has been
+     * encrypted again with a new salt. Only call this once all Vaults have been loaded.
+     */
+    public synchronized void retainUsed() {
+        if (entries.keySet().retainAll(used)) {
+            modified();
+        }
+    }
+
+    /**
+     * Keep changes in memory until {@link #flush()} is called, instead of rewriting the cache file for each Vault
+     */
+    public synchronized void deferWrites() {
+        deferred = true;
+    }
+
+    /**
+     * Write the changes since writes have been deferred, and write each change right away from now on
+     */
+    public synchronized void flush() {
+        deferred = false;
+        if (modified) {
+            write();
+        }
+    }
+
+    private void modified() {
+        modified = true;
+        if (!deferred) {
+            write();
+        }
+    }
+
+    private AnsibleVaultEncryptionKeys getProtection(char[] password, byte[] passwordFingerprint) throws GeneralSecurityException {
+        if (keyFileProtection != null) {
+            return keyFileProtection;
+        }
+        ByteBuffer fingerprint = ByteBuffer.wrap(passwordFingerprint.clone());
+        AnsibleVaultEncryptionKeys protection = passwordProtection.get(fingerprint);
+        if (protection == null) {
+            protection = new AnsibleVaultEncryptionKeys(password, modeParameter);
+            passwordProtection.put(fingerprint, protection);
+        }
+        return protection;
+    }
+
+    private String seal(AnsibleVaultEncryptionKeys protection, char[] password, byte[] salt, AnsibleVaultEncryptionKeys keys) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, protection.getCipherKey(), new GCMParameterSpec(TAG_LENGTH, nonce));
+        cipher.updateAAD(getAssociatedData(protection, password, salt));
+        byte[] derivedKey = keys.getEncoded();
+        try {
+            return hex(nonce) + ";" + hex(cipher.doFinal(derivedKey));
+        } finally {
+            Arrays.fill(derivedKey, (byte) 0x00);
+        }
+    }
+
+    private byte[] unseal(AnsibleVaultEncryptionKeys protection, char[] password, byte[] salt, String sealed) throws GeneralSecurityException {
+        int separator = sealed.indexOf(';');
+        if (separator < 0) {
+            throw new IllegalArgumentException("nonce expected");
+        }
+        byte[] nonce = Hexlify.unhexlify(sealed.substring(0, separator));
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, protection.getCipherKey(), new GCMParameterSpec(TAG_LENGTH, nonce));
+        cipher.updateAAD(getAssociatedData(protection, password, salt));
+        return cipher.doFinal(Hexlify.unhexlify(sealed.substring(separator + 1)));
+    }
+
+    /**
+     * Bind an entry to the salt and password it has been derived from. The password only needs to be bound when the
+     * cache is protected by a key file, but binding it in either case keeps the format the same.
+     */
+    private static byte[] getAssociatedData(AnsibleVaultEncryptionKeys protection, char[] password, byte[] salt) throws GeneralSecurityException {
+        ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            byte[] passwordTag = hmac(protection, Arrays.copyOf(passwordBytes.array(), passwordBytes.limit()));
+            byte[] associatedData = Arrays.copyOf(salt, salt.length + passwordTag.length);
+            System.arraycopy(passwordTag, 0, associatedData, salt.length, passwordTag.length);
+            return associatedData;
+        } finally {
+            Arrays.fill(passwordBytes.array(), (byte) 0x00);
+        }
+    }
+
+    private static byte[] hmac(AnsibleVaultEncryptionKeys protection, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(protection.getHmacKey());
+        try {
+            return mac.doFinal(data);
+        } finally {
+            Arrays.fill(data, (byte) 0x00);
+        }
+    }
+
+    /**
+     * Read the entries of the cache file. A file which has been written in another mode or for another key file is
+     * ignored, as are malformed lines.
+     */
+    private void read() throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        if (lines.isEmpty()) {
+            return;
+        }
+        String[] header = lines.get(0).split(";");
+        if (header.length != 4 || !(header[0] + ";" + header[1]).equals(HEADER) || !header[2].equals(mode)) {
+            return;
+        }
+        try {
+            byte[] parameter = Hexlify.unhexlify(header[3]);
+            if (mode.equals(KEY_FILE_MODE) && !Arrays.equals(parameter, modeParameter)) {
+                return;
+            }
+            if (mode.equals(PASSWORD_MODE)) {
+                if (parameter.length != SALT_LENGTH) {
+                    return;
+                }
+                System.arraycopy(parameter, 0, modeParameter, 0, SALT_LENGTH);
+            }
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            int separator = line.indexOf(';');
+            if (separator > 0) {
+                entries.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+    }
+
+    /**
+     * Replace the cache file atomically, so that concurrently starting JVMs never read a partially written file
+     */
+    private void write() {
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = createOwnerOnlyFile(directory);
+            try {
+                try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.US_ASCII)) {
+                    out.write(HEADER + ";" + mode + ";" + hex(modeParameter) + "\n");
+                    for (Map.Entry<String, String> entry : entries.entrySet()) {
+                        out.write(entry.getKey() + ";" + entry.getValue() + "\n");
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                modified = false;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            writeFailureCount.incrementAndGet();
+            lastWriteFailure = e;
+        }
+    }
+
+    private Path createOwnerOnlyFile(Path directory) throws IOException {
+        String prefix = file.getFileName().toString();
+        if (Files.getFileAttributeView(directory, PosixFileAttributeView.class) == null) {
+            return Files.createTempFile(directory, prefix, ".tmp");
+        }
+        FileAttribute<Set<PosixFilePermission>> ownerOnly = PosixFilePermissions.asFileAttribute(
+                EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        while (true) {
+            try {
+                return Files.createFile(directory.resolve(prefix + "." + Integer.toHexString(random.nextInt()) + ".tmp"), ownerOnly);
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    private static String hex(byte[] data) {
+        return new String(Hexlify.hexlify(data, 0, data.length));
+    }
+
+    private static void checkPermissions(Path path) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+        if (view == null) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+        if (!OWNER_ONLY.containsAll(permissions)) {
+            throw new IOException("permissions " + PosixFilePermissions.toString(permissions) + " are too open, " + path + " must only be accessible by its owner");
+        }
+    }
+
+    /**
+     * @return the number of keys which have been read from the cache file
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of keys which had to be derived
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of times the cache file could not be written
+     */
+    public long getWriteFailureCount() {
+        return writeFailureCount.get();
+    }
+
+    /**
+     * @return the reason the cache file could not be written the last time, or null
+     */
+    public IOException getLastWriteFailure() {
+        return lastWriteFailure;
+    }
+
+    /**
+     * @return the number of entries in the cache file
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Zeroize the keys protecting the cache. The cache file is kept.
+     */
+    @Override
+    public synchronized void close() {
+        if (keyFileProtection != null) {
+            keyFileProtection.destroy();
+        }
+        for (Iterator<AnsibleVaultEncryptionKeys> it = passwordProtection.values().iterator(); it.hasNext(); ) {
+            it.next().destroy();
+            it.remove();
+        }
+    }
+}
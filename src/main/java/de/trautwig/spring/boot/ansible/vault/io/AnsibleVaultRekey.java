@@ -0,0 +1,245 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * Changes the password of many Vault files at once, like 'ansible-vault rekey' does for each of them. Every file is
+ * decrypted with its old password and encrypted again with the new password and a fresh salt. The new Vault is
+ * written to a temporary file next to the original, which then replaces it in a single atomic rename, so that an
+ * interrupted run never leaves a truncated Vault behind.
+ * <p>
+ * The files are processed in parallel on a {@link ForkJoinPool}. The keys derived from an old password are shared
+ * between files with the same salt, e.g. copies of the same Vault, so that they are only derived once per run.
+ *
+ * @see AnsibleVaultRekeyCommand
+ */
+public final class AnsibleVaultRekey {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Function<String, char[]> oldPasswords;
+    private final char[] newPassword;
+    private final boolean keepVaultId;
+    private final String newVaultId;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Keep the vault-id of each Vault
+     *
+     * @param oldPasswords returns the current password for the vault-id of a Vault
+     */
+    public AnsibleVaultRekey(Function<String, char[]> oldPasswords, char[] newPassword) {
+        this(oldPasswords, newPassword, true, null);
+    }
+
+    /**
+     * @param oldPasswords returns the current password for the vault-id of a Vault
+     * @param newVaultId   the label of the new password, or null to write all Vaults in format 1.1
+     */
+    public AnsibleVaultRekey(Function<String, char[]> oldPasswords, char[] newPassword, String newVaultId) {
+        this(oldPasswords, newPassword, false, newVaultId);
+    }
+
+    private AnsibleVaultRekey(Function<String, char[]> oldPasswords, char[] newPassword, boolean keepVaultId, String newVaultId) {
+        this.oldPasswords = oldPasswords;
+        this.newPassword = newPassword;
+        this.keepVaultId = keepVaultId;
+        this.newVaultId = newVaultId;
+    }
+
+    /**
+     * @param parallelism the number of files to rekey at the same time, by default the number of processors
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Rekey a single Vault
+     */
+    public Result rekey(Path file) throws IOException, GeneralSecurityException {
+        try (AnsibleVaultKeyCache keyCache = new AnsibleVaultKeyCache(0)) {
+            return rekey(file, keyCache);
+        }
+    }
+
+    /**
+     * Rekey all Vaults in parallel. A file which cannot be rekeyed, e.g. because of a wrong password, is left as it
+     * is and does not stop the others.
+     *
+     * @return one result per file, in the order of the files
+     */
+    public List<Result> rekeyAll(Collection<Path> files) {
+        List<Result> results = new ArrayList<>(files.size());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (AnsibleVaultKeyCache keyCache = new AnsibleVaultKeyCache(files.size())) {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        return rekey(file, keyCache);
+                    } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                        return new Result(file, 0, System.nanoTime() - start, e);
+                    }
+                }));
+            }
+            for (ForkJoinTask<Result> task : tasks) {
+                results.add(task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    private Result rekey(Path file, AnsibleVaultKeyCache keyCache) throws IOException, GeneralSecurityException {
+        long start = System.nanoTime();
+        long size = Files.size(file);
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, "." + file.getFileName(), ".tmp");
+        try {
+            write(file, temporary, keyCache);
+            copyPermissions(file, temporary);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        return new Result(file, size, System.nanoTime() - start, null);
+    }
+
+    private void write(Path file, Path temporary, AnsibleVaultKeyCache keyCache) throws IOException, GeneralSecurityException {
+        String[] vaultId = new String[1];
+        Function<String, char[]> passwords = id -> {
+            vaultId[0] = id;
+            return oldPasswords.apply(id);
+        };
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new AnsibleVaultInputStream(Files.newInputStream(file), passwords, new AnsibleVaultTimings(), keyCache);
+             FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            // closing the Vault stream writes the Vault, but the channel must stay open to be forced to disk
+            OutputStream out = new AnsibleVaultOutputStream(new UnclosableOutputStream(Channels.newOutputStream(channel)),
+                    newPassword, keepVaultId ? vaultId[0] : newVaultId);
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, n);
+            }
+            out.close();
+            channel.force(true);
+        } finally {
+            Arrays.fill(buffer, (byte) 0x00);
+        }
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        if (view != null) {
+            Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+            Files.setPosixFilePermissions(target, permissions);
+        }
+    }
+
+    /**
+     * The outcome of rekeying one Vault
+     */
+    public static final class Result {
+        private final Path file;
+        private final long bytes;
+        private final long nanos;
+        private final Exception failure;
+
+        Result(Path file, long bytes, long nanos, Exception failure) {
+            this.file = file;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.failure = failure;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the size of the original Vault file, or 0 if it could not be rekeyed
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the time taken for this Vault, including waiting for keys derived for another Vault
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the reason why the Vault could not be rekeyed, or null if it has been rekeyed
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+    }
+
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import java.io.Console;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Command line front end of {@link AnsibleVaultRekey}, with options like those of 'ansible-vault rekey':
+ * <pre>
+ * java -cp spring-boot-ansible-vault.jar de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultRekeyCommand \
+ *     --vault-password-file old.txt --new-vault-password-file new.txt vault.yml vault-*.yml
+ * </pre>
+ * Passwords can be given for vault-ids with '--vault-id &lt;vault-id&gt;@&lt;file&gt;' and '--new-vault-id
+ * &lt;vault-id&gt;@&lt;file&gt;'. Passwords which are not given are asked for on the console. Password files are read
+ * as plain text; unlike with Ansible, they are never executed.
+ * <p>
+ * The time taken and the throughput are printed for every file. The exit code is 1 if any file could not be rekeyed.
+ */
+public final class AnsibleVaultRekeyCommand {
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final List<String> OPTIONS = Arrays.asList(
+            "--vault-password-file", "--vault-id", "--new-vault-password-file", "--new-vault-id", "--threads");
+
+    private AnsibleVaultRekeyCommand() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        char[] oldPassword = null;
+        Map<String, char[]> oldPasswords = new HashMap<>();
+        char[] newPassword = null;
+        String newVaultId = null;
+        Integer threads = null;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (OPTIONS.contains(arg) && i + 1 >= args.length) {
+                    return usage("missing value for " + arg);
+                }
+                switch (arg) {
+                    case "--vault-password-file":
+                        oldPassword = readPassword(args[++i]);
+                        break;
+                    case "--vault-id": {
+                        String[] vaultId = splitVaultId(args[++i]);
+                        oldPasswords.put(vaultId[0], readPassword(vaultId[1]));
+                        break;
+                    }
+                    case "--new-vault-password-file":
+                        newPassword = readPassword(args[++i]);
+                        break;
+                    case "--new-vault-id": {
+                        String[] vaultId = splitVaultId(args[++i]);
+                        newVaultId = vaultId[0];
+                        newPassword = readPassword(vaultId[1]);
+                        break;
+                    }
+                    case "--threads":
+                        threads = Integer.valueOf(args[++i]);
+                        break;
+                    case "--":
+                        while (++i < args.length) {
+                            files.add(Paths.get(args[i]));
+                        }
+                        break;
+                    default:
+                        if (arg.startsWith("--")) {
+                            return usage("unknown option " + arg);
+                        }
+                        files.add(Paths.get(arg));
+                }
+            }
+            if (files.isEmpty()) {
+                return usage("no Vault files given");
+            }
+            if (oldPassword == null && oldPasswords.isEmpty()) {
+                oldPassword = prompt("Vault password: ");
+            }
+            if (newPassword == null) {
+                newPassword = prompt("New Vault password: ");
+            }
+
+            char[] defaultPassword = oldPassword;
+            Function<String, char[]> passwords = vaultId -> oldPasswords.getOrDefault(vaultId, defaultPassword);
+            // without a new vault-id, every Vault keeps its own
+            AnsibleVaultRekey rekey = newVaultId != null
+                    ? new AnsibleVaultRekey(passwords, newPassword, newVaultId)
+                    : new AnsibleVaultRekey(passwords, newPassword);
+            if (threads != null) {
+                rekey.setParallelism(threads);
+            }
+            return report(rekey.rekeyAll(files));
+        } catch (IllegalArgumentException | IOException e) {
+            return usage(e.getMessage());
+        } finally {
+            clear(oldPassword);
+            oldPasswords.values().forEach(AnsibleVaultRekeyCommand::clear);
+            clear(newPassword);
+        }
+    }
+
+    private static int report(List<AnsibleVaultRekey.Result> results) {
+        long totalBytes = 0;
+        long totalNanos = 0;
+        int failures = 0;
+        for (AnsibleVaultRekey.Result result : results) {
+            if (result.isSuccessful()) {
+                System.out.println(String.format(Locale.ROOT, "%s: %d bytes in %.1f ms (%.2f MB/s)", result.getFile(),
+                        result.getBytes(), result.getNanos() / 1e6, throughput(result.getBytes(), result.getNanos())));
+                totalBytes += result.getBytes();
+                totalNanos += result.getNanos();
+            } else {
+                System.err.println(result.getFile() + ": " + result.getFailure());
+                failures++;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "rekeyed %d of %d Vaults, %d bytes in %.1f ms of processing (%.2f MB/s)",
+                results.size() - failures, results.size(), totalBytes, totalNanos / 1e6, throughput(totalBytes, totalNanos)));
+        return failures == 0 ? 0 : EXIT_FAILURE;
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / (nanos / 1e9) / (1024 * 1024);
+    }
+
+    private static String[] splitVaultId(String value) {
+        int separator = value.indexOf('@');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("vault-id expected as <vault-id>@<file>: " + value);
+        }
+        return new String[]{value.substring(0, separator), value.substring(separator + 1)};
+    }
+
+    /**
+     * Read a password file, ignoring leading and trailing whitespace like a trailing line break
+     */
+    static char[] readPassword(String file) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(file));
+        try {
+            int start = 0;
+            while (start < data.length && (data[start] & 0xFF) <= ' ') {
+                start++;
+            }
+            int end = data.length;
+            while (end > start && (data[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                throw new IllegalArgumentException("empty password in " + file);
+            }
+            CharBuffer decoded = Charset.defaultCharset().decode(ByteBuffer.wrap(data, start, end - start));
+            try {
+                return Arrays.copyOfRange(decoded.array(), decoded.position(), decoded.limit());
+            } finally {
+                Arrays.fill(decoded.array(), '\0');
+            }
+        } finally {
+            Arrays.fill(data, (byte) 0x00);
+        }
+    }
+
+    private static char[] prompt(String message) {
+        Console console = System.console();
+        if (console == null) {
+            throw new IllegalArgumentException("no console to ask for the password, use a password file");
+        }
+        char[] password = console.readPassword(message);
+        if (password == null || password.length == 0) {
+            throw new IllegalArgumentException("no password given");
+        }
+        return password;
+    }
+
+    private static void clear(char[] password) {
+        if (password != null) {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private static int usage(String message) {
+        System.err.println(message);
+        System.err.println("usage: AnsibleVaultRekeyCommand [--vault-password-file <file>] [--vault-id <vault-id>@<file>]...");
+        System.err.println("           [--new-vault-password-file <file> | --new-vault-id <vault-id>@<file>] [--threads <n>] <vault>...");
+        return EXIT_USAGE;
+    }
+}
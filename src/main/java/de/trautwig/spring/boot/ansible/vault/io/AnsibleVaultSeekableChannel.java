@@ -0,0 +1,389 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Decrypts parts of a large Vault on demand, e.g. a keystore or another binary file which has been put into a Vault.
+ * <p>
+ * When the channel is opened, the HMAC of the whole Vault is verified in a single pass, without keeping any
+ * plaintext. Since the Vault is encrypted with AES in counter mode, each block can then be decrypted independently:
+ * reading at a given position only decodes and decrypts the blocks which contain the requested bytes, starting with
+ * the counter value for the first of them. To locate the hex-encoded ciphertext in the Vault file, the file offset of
+ * every {@value #CHECKPOINT_INTERVAL}th hex digit is recorded while verifying the HMAC.
+ * <p>
+ * The source must not be modified while the channel is open. Instances are not thread-safe.
+ */
+public class AnsibleVaultSeekableChannel implements SeekableByteChannel {
+    private static final int BLOCK_SIZE = 16;
+    // the ciphertext is hex-encoded twice
+    private static final int DIGITS_PER_BYTE = 4;
+    private static final int CHECKPOINT_INTERVAL = 64 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final SeekableByteChannel source;
+    private final long sourceSize;
+    private final AnsibleVaultEncryptionKeys keys;
+    private final Cipher cipher;
+    private final long[] checkpoints;
+    private final long ciphertextDigitOffset;
+    private final long ciphertextLength;
+    private final long size;
+    private long position;
+    private boolean open = true;
+
+    private final ByteBuffer raw = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer inner = ByteBuffer.allocate(BUFFER_SIZE / 2);
+    private final byte[] ciphertext = new byte[BUFFER_SIZE / DIGITS_PER_BYTE];
+    private final byte[] plaintext = new byte[BUFFER_SIZE / DIGITS_PER_BYTE];
+    private boolean decoding;
+    private long decoderPosition;
+    private long plaintextStart;
+    private int plaintextLength;
+
+    public AnsibleVaultSeekableChannel(SeekableByteChannel source, char[] password) throws IOException, GeneralSecurityException {
+        this(source, vaultId -> password);
+    }
+
+    /**
+     * The Vault is read from the current position of the source channel.
+     *
+     * @param passwords returns the password for the vault-id of the Vault
+     */
+    public AnsibleVaultSeekableChannel(SeekableByteChannel source, Function<String, char[]> passwords) throws IOException, GeneralSecurityException {
+        this.source = source;
+        AnsibleVaultEncryptionKeys keys = null;
+        try {
+            this.sourceSize = source.size();
+            CheckpointRecorder recorder = new CheckpointRecorder(Channels.newInputStream(source), source.position());
+            // do not close the reader, which would close the source
+            AnsibleVaultPayloadReader reader = new AnsibleVaultPayloadReader(recorder);
+            this.keys = keys = AnsibleVaultInputStream.getKeys(reader, passwords);
+            this.ciphertextLength = verifyHmac(reader);
+            this.checkpoints = recorder.getCheckpoints();
+            this.ciphertextDigitOffset = recorder.getDigitCount() - ciphertextLength * DIGITS_PER_BYTE;
+            // the payload consists of the salt, the HMAC and the ciphertext, each hex-encoded and separated by a line break
+            long expectedOffset = 2 * (2 * reader.getSalt().length + 1 + 2 * reader.getExpectedHmac().length + 1);
+            if (ciphertextDigitOffset != expectedOffset || ciphertextLength % BLOCK_SIZE != 0) {
+                throw new IOException("unexpected layout of the vault payload");
+            }
+            this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            this.size = ciphertextLength - getPadding();
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            if (keys != null) {
+                keys.destroy();
+            }
+            source.close();
+            throw e;
+        }
+    }
+
+    private long verifyHmac(AnsibleVaultPayloadReader reader) throws IOException, GeneralSecurityException {
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            Mac mac = crypto.getMac(keys.getHmacKey());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long length = 0;
+            for (int n; (n = reader.readCiphertext(buffer, 0, buffer.length)) >= 0; ) {
+                mac.update(buffer, 0, n);
+                length += n;
+            }
+            AnsibleVaultInputStream.checkHmac(reader.getExpectedHmac(), mac.doFinal());
+            return length;
+        }
+    }
+
+    private int getPadding() throws IOException {
+        if (ciphertextLength == 0) {
+            return 0;
+        }
+        fill(ciphertextLength - BLOCK_SIZE);
+        return AnsibleVaultInputStream.getPadding(plaintext, plaintextLength);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * Read a range of the plaintext, without changing the position of this channel
+     *
+     * @return the number of bytes read, or -1 if the position is at or beyond the end of the plaintext
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (position < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        if (position >= size) {
+            return -1;
+        }
+        int count = 0;
+        while (dst.hasRemaining() && position < size) {
+            if (position < plaintextStart || position >= plaintextStart + plaintextLength) {
+                fill(position);
+            }
+            int offset = (int) (position - plaintextStart);
+            int len = (int) Math.min(Math.min(dst.remaining(), plaintextLength - offset), size - position);
+            dst.put(plaintext, offset, len);
+            position += len;
+            count += len;
+        }
+        return count;
+    }
+
+    /**
+     * Skip forward, like {@link InputStream#skip(long)}. Nothing is decrypted until the next read.
+     *
+     * @return the number of bytes skipped
+     */
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long skipped = Math.max(0, Math.min(n, size - position));
+        position += skipped;
+        return skipped;
+    }
+
+    /**
+     * Decrypt the chunk of ciphertext which contains the given position. A chunk following the previous one is
+     * decoded right away, otherwise the decoder is moved to the block containing the position first.
+     */
+    private void fill(long position) throws IOException {
+        if (!decoding || position < decoderPosition || position >= decoderPosition + ciphertext.length) {
+            seek(position - position % BLOCK_SIZE);
+        }
+        int n = readCiphertext((int) Math.min(ciphertext.length, ciphertextLength - decoderPosition));
+        if (n <= 0) {
+            throw new EOFException("unexpected end of vault");
+        }
+        try {
+            plaintextLength = cipher.update(ciphertext, 0, n, plaintext, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        plaintextStart = decoderPosition;
+        decoderPosition += n;
+    }
+
+    private void seek(long ciphertextPosition) throws IOException {
+        if (source.size() != sourceSize) {
+            throw new IOException("the vault has been modified while reading");
+        }
+        long digit = ciphertextDigitOffset + ciphertextPosition * DIGITS_PER_BYTE;
+        int checkpoint = (int) (digit / CHECKPOINT_INTERVAL);
+        source.position(checkpoints[checkpoint]);
+        ((Buffer) raw).clear().limit(0);
+        ((Buffer) inner).clear().limit(0);
+        skipDigits(digit - (long) checkpoint * CHECKPOINT_INTERVAL);
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(getCounter(keys.getIv(), ciphertextPosition / BLOCK_SIZE)));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        decoderPosition = ciphertextPosition;
+        decoding = true;
+    }
+
+    /**
+     * @return the initial counter value for the given block, i.e. the IV incremented as 128 bit big-endian integer
+     */
+    static byte[] getCounter(byte[] iv, long block) {
+        byte[] counter = iv.clone();
+        long carry = block;
+        for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+            long sum = (counter[i] & 0xFF) + (carry & 0xFF);
+            counter[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return counter;
+    }
+
+    private void skipDigits(long count) throws IOException {
+        while (count > 0) {
+            if (!raw.hasRemaining() && !fillRaw()) {
+                throw new EOFException("unexpected end of vault");
+            }
+            byte chr = raw.get();
+            if (chr != '\n' && chr != '\r') {
+                count--;
+            }
+        }
+    }
+
+    private int readCiphertext(int len) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(ciphertext, 0, len);
+        try {
+            while (out.hasRemaining()) {
+                Hexlify.unhexlify(inner, out);
+                if (!out.hasRemaining()) {
+                    break;
+                }
+                inner.compact();
+                int decoded = Hexlify.unhexlify(raw, inner);
+                ((Buffer) inner).flip();
+                if (decoded == 0 && !fillRaw()) {
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("the vault has been modified while reading", e);
+        }
+        return out.position();
+    }
+
+    private boolean fillRaw() throws IOException {
+        raw.compact();
+        int n = source.read(raw);
+        ((Buffer) raw).flip();
+        return n >= 0;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return the length of the plaintext
+     */
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            keys.destroy();
+            Arrays.fill(plaintext, (byte) 0x00);
+            plaintextLength = 0;
+            source.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Passes the Vault on to the {@link AnsibleVaultPayloadReader}, and records the file offset of every
+     * {@value #CHECKPOINT_INTERVAL}th hex digit after the header line.
+     */
+    private static final class CheckpointRecorder extends InputStream {
+        private final InputStream in;
+        private long offset;
+        private long digitCount;
+        private boolean body;
+        private long[] checkpoints = new long[16];
+        private int checkpointCount;
+
+        CheckpointRecorder(InputStream in, long offset) {
+            this.in = in;
+            this.offset = offset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                observe(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            for (int i = 0; i < n; i++) {
+                observe(b[off + i]);
+            }
+            return n;
+        }
+
+        private void observe(int chr) {
+            if (chr == '\n' || chr == '\r') {
+                body = true;
+            } else if (body) {
+                if (digitCount % CHECKPOINT_INTERVAL == 0) {
+                    if (checkpointCount == checkpoints.length) {
+                        checkpoints = Arrays.copyOf(checkpoints, 2 * checkpoints.length);
+                    }
+                    checkpoints[checkpointCount++] = offset;
+                }
+                digitCount++;
+            }
+            offset++;
+        }
+
+        long getDigitCount() {
+            return digitCount;
+        }
+
+        long[] getCheckpoints() {
+            return Arrays.copyOf(checkpoints, checkpointCount);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Accumulates the time spent in each phase of loading a single Vault. Phases may be recorded repeatedly, e.g. once for
+ * each chunk of ciphertext, and their durations add up.
+ * <p>
+ * Instances are not thread-safe; a Vault is expected to be loaded by one thread at a time.
+ */
+public final class AnsibleVaultTimings {
+
+    public enum Phase {
+        /**
+         * Locating the Vault file and checking whether it exists
+         */
+        RESOLVE,
+        /**
+         * Looking up the password, and deriving the keys from it or finding them in the {@link AnsibleVaultKeyCache}
+         */
+        KEY_DERIVATION,
+        /**
+         * Reading the Vault file and decoding its hex representation
+         */
+        HEX_DECODE,
+        /**
+         * Verifying the HMAC of the ciphertext
+         */
+        HMAC,
+        /**
+         * Decrypting the ciphertext
+         */
+        DECRYPT,
+        /**
+         * Parsing the decrypted YAML documents
+         */
+        PARSE
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    /**
+     * Add the time elapsed since the given instant to a phase
+     *
+     * @param since a value of {@link System#nanoTime()}
+     * @return the current value of {@link System#nanoTime()}, to be passed as the start of the next phase
+     */
+    public long lap(Phase phase, long since) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - since;
+        return now;
+    }
+
+    /**
+     * Add a duration in nanoseconds to a phase
+     */
+    public void add(Phase phase, long durationNanos) {
+        nanos[phase.ordinal()] += durationNanos;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public Duration get(Phase phase) {
+        return Duration.ofNanos(getNanos(phase));
+    }
+
+    /**
+     * @return the time spent in all phases
+     */
+    public Duration getTotal() {
+        return Duration.ofNanos(Arrays.stream(nanos).sum());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(phase.name().toLowerCase(Locale.ROOT)).append('=').append(toMillis(getNanos(phase))).append("ms");
+        }
+        return result.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+}
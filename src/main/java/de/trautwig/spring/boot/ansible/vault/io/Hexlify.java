@@ -15,14 +15,39 @@
  */
 package de.trautwig.spring.boot.ansible.vault.io;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Utility class for converting byte[] to/from its hexadecimal representation
+ * <p>
+ * Decoding is table-driven and skips line breaks ('\n' and '\r') in the input, so that wrapped text can be decoded
+ * without removing them first. The overloads which write into a caller-supplied array or buffer do not copy the input.
+ * Each kind of source is decoded by a loop of its own, so that every loop only ever reads from a single type.
  *
  * @author Marcus Trautwig
  */
 public final class Hexlify {
     private static final char[] hexChars = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
+    private static final byte INVALID = -1;
+    private static final byte LINE_BREAK = -2;
+    private static final byte[] digits = new byte[128];
+
+    static {
+        Arrays.fill(digits, INVALID);
+        for (int i = 0; i < 10; i++) {
+            digits['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            digits['a' + i] = (byte) (10 + i);
+            digits['A' + i] = (byte) (10 + i);
+        }
+        digits['\n'] = LINE_BREAK;
+        digits['\r'] = LINE_BREAK;
+    }
+
     /**
      * Encode binary data to its hexadecimal representation
      *
@@ -34,55 +59,185 @@ public final class Hexlify {
     public static char[] hexlify(byte[] data, int offset, int len) {
         char[] result = new char[len * 2];
         for (int i = 0; i < len; i++) {
-            result[2 * i] = hexChars[data[offset + i] >> 4];
+            result[2 * i] = hexChars[(data[offset + i] >> 4) & 0x0F];
             result[2 * i + 1] = hexChars[data[offset + i] & 0x0F];
         }
         return result;
     }
 
+    /**
+     * Encode binary data to ASCII encoded hexadecimal digits in the given array
+     *
+     * @param src       the source to be encoded. Must not be {@code null}.
+     * @param offset    the offset (starting at 0) of the first byte to encode
+     * @param len       the number of bytes to encode
+     * @param dst       the array receiving the digits. Must have room for twice the given bytes.
+     * @param dstOffset the offset of the first digit to write
+     * @return the number of digits written
+     */
+    public static int hexlifyAscii(byte[] src, int offset, int len, byte[] dst, int dstOffset) {
+        for (int i = 0; i < len; i++) {
+            dst[dstOffset + 2 * i] = (byte) hexChars[(src[offset + i] >> 4) & 0x0F];
+            dst[dstOffset + 2 * i + 1] = (byte) hexChars[src[offset + i] & 0x0F];
+        }
+        return 2 * len;
+    }
+
     /**
      * Decode binary data from a hexadecimal String
      *
-     * @param str the source to be decoded. Must not be {@code null}. Must only contain hexadecimal digits (0-f or 0-F) and the length must be a multiple of 2.
+     * @param str the source to be decoded. Must not be {@code null}. Must only contain hexadecimal digits (0-f or 0-F) and line breaks, and the number of digits must be a multiple of 2.
      * @return a byte[] with the corresponding binary data, half the size of the given input.
      * @throws IllegalArgumentException if the source
      */
     public static byte[] unhexlify(String str) {
-        char[] data = str.toCharArray();
-        return unhexlify(data, 0, data.length);
+        byte[] result = new byte[str.length() / 2];
+        return trim(result, unhexlify(str, 0, str.length(), result, 0));
     }
 
     /**
      * Decode binary data from a hexadecimal character sequence
      *
-     * @param data   the source to be decoded. Must not be {@code null}. Must only contain hexadecimal digits (0-f or 0-F) and the length must be a multiple of 2.
+     * @param data   the source to be decoded. Must not be {@code null}. Must only contain hexadecimal digits (0-f or 0-F) and line breaks, and the number of digits must be a multiple of 2.
      * @param offset the offset (starting at 0) of the first character to decode
      * @param len    the number of bytes to decode
      * @return a byte[] with the corresponding binary data, half the size of the given input.
      * @throws IllegalArgumentException if the source
      */
     public static byte[] unhexlify(char[] data, int offset, int len) {
-        if (len % 2 != 0) {
-            throw new IllegalArgumentException("buffer underflow");
+        byte[] result = new byte[len / 2];
+        return trim(result, unhexlify(data, offset, len, result, 0));
+    }
+
+    /**
+     * Decode binary data from a hexadecimal character sequence into the given array, skipping line breaks
+     *
+     * @param src       the source to be decoded. Must only contain hexadecimal digits and line breaks.
+     * @param offset    the offset (starting at 0) of the first character to decode
+     * @param len       the number of characters to decode
+     * @param dst       the array receiving the binary data. Must have room for at least half the given characters.
+     * @param dstOffset the offset of the first byte to write
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the source contains other characters or an odd number of digits
+     */
+    public static int unhexlify(CharSequence src, int offset, int len, byte[] dst, int dstOffset) {
+        int out = dstOffset;
+        for (int i = offset, end = offset + len; i < end; ) {
+            int high = digit(src.charAt(i++));
+            if (high == LINE_BREAK) {
+                continue;
+            }
+            int low;
+            do {
+                checkUnderflow(i, end);
+                low = digit(src.charAt(i++));
+            } while (low == LINE_BREAK);
+            dst[out++] = (byte) ((high << 4) | low);
         }
+        return out - dstOffset;
+    }
 
-        byte[] result = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            result[i / 2] = (byte) ((fromHex(data[offset + i]) << 4) | fromHex(data[offset + i + 1]));
+    /**
+     * Decode binary data from a hexadecimal character array into the given array, skipping line breaks
+     *
+     * @see #unhexlify(CharSequence, int, int, byte[], int)
+     */
+    public static int unhexlify(char[] src, int offset, int len, byte[] dst, int dstOffset) {
+        int out = dstOffset;
+        for (int i = offset, end = offset + len; i < end; ) {
+            int high = digit(src[i++]);
+            if (high == LINE_BREAK) {
+                continue;
+            }
+            int low;
+            do {
+                checkUnderflow(i, end);
+                low = digit(src[i++]);
+            } while (low == LINE_BREAK);
+            dst[out++] = (byte) ((high << 4) | low);
+        }
+        return out - dstOffset;
+    }
+
+    /**
+     * Decode binary data from ASCII encoded hexadecimal digits into the given array, skipping line breaks
+     *
+     * @see #unhexlify(CharSequence, int, int, byte[], int)
+     */
+    public static int unhexlifyAscii(byte[] src, int offset, int len, byte[] dst, int dstOffset) {
+        int out = dstOffset;
+        for (int i = offset, end = offset + len; i < end; ) {
+            int high = digit(src[i++] & 0xFF);
+            if (high == LINE_BREAK) {
+                continue;
+            }
+            int low;
+            do {
+                checkUnderflow(i, end);
+                low = digit(src[i++] & 0xFF);
+            } while (low == LINE_BREAK);
+            dst[out++] = (byte) ((high << 4) | low);
+        }
+        return out - dstOffset;
+    }
+
+    /**
+     * Decode as much binary data from ASCII encoded hexadecimal digits as fits into the given buffer, skipping line
+     * breaks. A trailing digit whose counterpart is not yet available remains in the source, so that decoding can be
+     * resumed once more input has been added.
+     *
+     * @param src the source to be decoded, from its position to its limit. Its position is advanced accordingly.
+     * @param dst the buffer receiving the binary data. Its position is advanced accordingly.
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the source contains other characters
+     */
+    public static int unhexlify(ByteBuffer src, ByteBuffer dst) {
+        int count = 0;
+        int pos = src.position();
+        int limit = src.limit();
+        while (pos < limit && dst.hasRemaining()) {
+            int high = digit(src.get(pos) & 0xFF);
+            if (high == LINE_BREAK) {
+                pos++;
+                continue;
+            }
+            int lowPos = pos + 1;
+            while (lowPos < limit && digit(src.get(lowPos) & 0xFF) == LINE_BREAK) {
+                lowPos++;
+            }
+            if (lowPos >= limit) {
+                break;
+            }
+            dst.put((byte) ((high << 4) | digit(src.get(lowPos) & 0xFF)));
+            pos = lowPos + 1;
+            count++;
+        }
+        ((Buffer) src).position(pos);
+        return count;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the source ends before the second digit of a byte
+     */
+    private static void checkUnderflow(int index, int end) {
+        if (index >= end) {
+            throw new IllegalArgumentException("buffer underflow");
         }
-        return result;
     }
 
-    private static int fromHex(char chr) {
-        if (chr >= '0' && chr <= '9') {
-            return (chr - '0');
-        } else if (chr >= 'a' && chr <= 'f') {
-            return 10 + (chr - 'a');
-        } else if (chr >= 'A' && chr <= 'F') {
-            return 10 + (chr - 'A');
-        } else {
-            throw new IllegalArgumentException("unexpected input: " + chr);
+    /**
+     * @return the value of the given hexadecimal digit, or {@link #LINE_BREAK}
+     */
+    private static int digit(int chr) {
+        int value = chr < digits.length ? digits[chr] : INVALID;
+        if (value == INVALID) {
+            throw new IllegalArgumentException("unexpected input: " + (char) chr);
         }
+        return value;
+    }
+
+    private static byte[] trim(byte[] data, int length) {
+        return length == data.length ? data : Arrays.copyOf(data, length);
     }
 
     private Hexlify() {
@@ -0,0 +1,92 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings.Phase;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event for loading a single Vault file. Only compiled for Java 11 and later, and packaged into
+ * the versioned section of the multi-release jar; on Java 8 the event is replaced by a class which records nothing.
+ * <p>
+ * The phases are measured before the event is created, so the duration of the event itself is not meaningful; the
+ * time spent is recorded in its fields instead.
+ */
+@Name("de.trautwig.spring.boot.ansible.vault.Load")
+@Label("Ansible Vault Load")
+@Description("Time spent loading a Vault file, by phase")
+@Category({"Spring Boot", "Ansible Vault"})
+@StackTrace(false)
+final class AnsibleVaultLoadEvent extends Event {
+
+    @Label("Location")
+    String location;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Resolve")
+    @Timespan
+    long resolve;
+
+    @Label("Key Derivation")
+    @Timespan
+    long keyDerivation;
+
+    @Label("Hex Decode")
+    @Timespan
+    long hexDecode;
+
+    @Label("HMAC")
+    @Timespan
+    long hmac;
+
+    @Label("Decrypt")
+    @Timespan
+    long decrypt;
+
+    @Label("Parse")
+    @Timespan
+    long parse;
+
+    @Label("Total")
+    @Timespan
+    long total;
+
+    static void commit(String location, boolean found, AnsibleVaultTimings timings) {
+        AnsibleVaultLoadEvent event = new AnsibleVaultLoadEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.location = location;
+        event.found = found;
+        event.resolve = timings.getNanos(Phase.RESOLVE);
+        event.keyDerivation = timings.getNanos(Phase.KEY_DERIVATION);
+        event.hexDecode = timings.getNanos(Phase.HEX_DECODE);
+        event.hmac = timings.getNanos(Phase.HMAC);
+        event.decrypt = timings.getNanos(Phase.DECRYPT);
+        event.parse = timings.getNanos(Phase.PARSE);
+        event.total = timings.getTotal().toNanos();
+        event.commit();
+    }
+}
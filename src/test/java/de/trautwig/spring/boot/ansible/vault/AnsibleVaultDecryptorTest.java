@@ -0,0 +1,118 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class AnsibleVaultDecryptorTest {
+
+    @Test
+    public void decryptsBytesStreamsAndText() throws Exception {
+        byte[] vault = encrypt("secret");
+        AnsibleVaultDecryptor decryptor = new AnsibleVaultDecryptor(vaultId -> "demo".toCharArray(), 1024, 60_000);
+
+        Assert.assertThat(decryptor.decrypt(vault), equalTo("secret".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertThat(decryptor.decrypt(new ByteArrayInputStream(vault)), equalTo("secret".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertThat(decryptor.decryptToString(new String(vault, StandardCharsets.US_ASCII)), equalTo("secret"));
+        Assert.assertThat(decryptor.getMissCount(), equalTo(1L));
+        Assert.assertThat(decryptor.getHitCount(), equalTo(2L));
+        Assert.assertThat(decryptor.getCachedBytes(), equalTo(6L));
+    }
+
+    @Test
+    public void zeroizingResultDoesNotAffectCache() throws Exception {
+        byte[] vault = encrypt("secret");
+        AnsibleVaultDecryptor decryptor = new AnsibleVaultDecryptor(vaultId -> "demo".toCharArray(), 1024, 60_000);
+        Arrays.fill(decryptor.decrypt(vault), (byte) 0x00);
+
+        Assert.assertThat(decryptor.decrypt(vault), equalTo("secret".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void modifiedVaultIsNotAnsweredFromCache() throws Exception {
+        byte[] vault = encrypt("secret");
+        AnsibleVaultDecryptor decryptor = new AnsibleVaultDecryptor(vaultId -> "demo".toCharArray(), 1024, 60_000);
+        decryptor.decrypt(vault);
+
+        // change the last hex digit of the ciphertext, which is hex-encoded twice
+        byte[] modified = vault.clone();
+        int last = modified.length - 2;
+        modified[last] = (byte) (modified[last] == '1' ? '2' : '1');
+        decryptor.decrypt(modified);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        byte[] first = encrypt("0123456789");
+        byte[] second = encrypt("abcdefghij");
+        byte[] third = encrypt("ABCDEFGHIJ");
+        AnsibleVaultDecryptor decryptor = new AnsibleVaultDecryptor(vaultId -> "demo".toCharArray(), 20, 60_000);
+        decryptor.decrypt(first);
+        decryptor.decrypt(second);
+        decryptor.decrypt(first);
+        decryptor.decrypt(third);
+
+        Assert.assertThat(decryptor.size(), equalTo(2));
+        Assert.assertThat(decryptor.getCachedBytes(), equalTo(20L));
+        Assert.assertThat(decryptor.getEvictionCount(), equalTo(1L));
+
+        decryptor.decrypt(first);
+        Assert.assertThat(decryptor.getHitCount(), equalTo(2L));
+    }
+
+    @Test
+    public void expiredEntriesAreDecryptedAgain() throws Exception {
+        byte[] vault = encrypt("secret");
+        AnsibleVaultDecryptor decryptor = new AnsibleVaultDecryptor(vaultId -> "demo".toCharArray(), 1024, 0);
+        decryptor.decrypt(vault);
+        decryptor.decrypt(vault);
+
+        Assert.assertThat(decryptor.getMissCount(), equalTo(2L));
+        Assert.assertThat(decryptor.getExpirationCount(), equalTo(1L));
+        Assert.assertThat(decryptor.size(), equalTo(1));
+    }
+
+    @Test
+    public void closeClearsCacheAndReleasesPasswords() throws Exception {
+        boolean[] released = new boolean[1];
+        AnsibleVaultDecryptor decryptor = new AnsibleVaultDecryptor(vaultId -> "demo".toCharArray(), () -> released[0] = true, 1024, 60_000);
+        decryptor.decrypt(encrypt("secret"));
+        decryptor.close();
+
+        Assert.assertThat(decryptor.size(), equalTo(0));
+        Assert.assertThat(decryptor.getCachedBytes(), equalTo(0L));
+        Assert.assertThat(released[0], equalTo(true));
+    }
+
+    private static byte[] encrypt(String plaintext) throws Exception {
+        ByteArrayOutputStream vault = new ByteArrayOutputStream();
+        try (OutputStream out = new AnsibleVaultOutputStream(vault, "demo".toCharArray())) {
+            out.write(plaintext.getBytes(StandardCharsets.UTF_8));
+        }
+        return vault.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultInputStream;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultKeyCache;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultPersistentKeyCache;
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultTimings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AnsibleVaultKeyCacheCloserTest {
+    private final AnsibleVaultKeyCache keyCache = AnsibleVaultKeyCache.getDefault();
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("vault-key-cache");
+        keyCache.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        keyCache.setPersistentCache(null);
+        keyCache.clear();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void keysAreWipedWhenContextIsClosed() throws Exception {
+        AnsibleVaultPersistentKeyCache persistentKeyCache = AnsibleVaultPersistentKeyCache.open(directory.resolve("keys"));
+        keyCache.setPersistentCache(persistentKeyCache);
+        decrypt(encrypt("secret"));
+
+        GenericApplicationContext context = new GenericApplicationContext();
+        new AnsibleVaultKeyCacheCloser(keyCache, persistentKeyCache).initialize(context);
+        context.refresh();
+        Assert.assertThat(keyCache.size(), equalTo(1));
+
+        context.close();
+        Assert.assertThat(keyCache.size(), equalTo(0));
+        Assert.assertThat(keyCache.getPersistentCache(), nullValue());
+    }
+
+    @Test
+    public void persistentCacheOfOtherApplicationIsKept() throws Exception {
+        AnsibleVaultPersistentKeyCache persistentKeyCache = AnsibleVaultPersistentKeyCache.open(directory.resolve("keys"));
+        AnsibleVaultPersistentKeyCache otherPersistentKeyCache = AnsibleVaultPersistentKeyCache.open(directory.resolve("other-keys"));
+        keyCache.setPersistentCache(otherPersistentKeyCache);
+
+        GenericApplicationContext context = new GenericApplicationContext();
+        new AnsibleVaultKeyCacheCloser(keyCache, persistentKeyCache).initialize(context);
+        context.refresh();
+        context.close();
+
+        Assert.assertThat(keyCache.getPersistentCache(), sameInstance(otherPersistentKeyCache));
+    }
+
+    private static String decrypt(byte[] vault) throws Exception {
+        try (InputStream in = new AnsibleVaultInputStream(new ByteArrayInputStream(vault), vaultId -> "demo".toCharArray(), new AnsibleVaultTimings())) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] encrypt(String plaintext) throws Exception {
+        ByteArrayOutputStream vault = new ByteArrayOutputStream();
+        try (OutputStream out = new AnsibleVaultOutputStream(vault, "demo".toCharArray())) {
+            out.write(plaintext.getBytes(StandardCharsets.UTF_8));
+        }
+        return vault.toByteArray();
+    }
+}
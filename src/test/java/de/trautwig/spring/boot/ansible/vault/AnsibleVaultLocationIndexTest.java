@@ -0,0 +1,88 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+
+public class AnsibleVaultLocationIndexTest {
+    private Path directory;
+    private String location;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("vault");
+        Files.createFile(directory.resolve("vault-a.yml"));
+        location = directory.toUri().toString();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void matchesFileSystemCandidates() {
+        List<String> candidates = Arrays.asList(location + "vault-a.yml", location + "vault-b.yml", location + "vault.yml");
+        AnsibleVaultLocationIndex index = new AnsibleVaultLocationIndex(new DefaultResourceLoader(), candidates, ".yml");
+
+        Assert.assertThat(index.mayExist(location + "vault-a.yml"), is(true));
+        Assert.assertThat(index.mayExist(location + "vault-b.yml"), is(false));
+        Assert.assertThat(index.mayExist(location + "vault.yml"), is(false));
+    }
+
+    @Test
+    public void probesClasspathCandidates() {
+        // a jar without directory entries lists nothing, so missing candidates cannot be ruled out
+        List<String> candidates = Arrays.asList("classpath:/location-index/vault-a.yml", "classpath:/location-index/vault-b.yml",
+                "classpath:/location-index/vault.yml", "classpath:/vault-profile3.yml", "classpath:/vault.yml");
+        AnsibleVaultLocationIndex index = new AnsibleVaultLocationIndex(new DefaultResourceLoader(), candidates, ".yml");
+
+        Assert.assertThat(index.mayExist("classpath:/location-index/vault-a.yml"), is(true));
+        Assert.assertThat(index.mayExist("classpath:/location-index/vault-b.yml"), is(true));
+        Assert.assertThat(index.mayExist("classpath:/vault-profile3.yml"), is(true));
+    }
+
+    @Test
+    public void probesCandidatesWithOtherExtension() {
+        List<String> candidates = Arrays.asList(location + "vault-b.yml", location + "vault.yml", location + "vault.yaml");
+        AnsibleVaultLocationIndex index = new AnsibleVaultLocationIndex(new DefaultResourceLoader(), candidates, ".yml");
+
+        Assert.assertThat(index.mayExist(location + "vault-b.yml"), is(false));
+        Assert.assertThat(index.mayExist(location + "vault.yaml"), is(true));
+    }
+
+    @Test
+    public void probesDirectoriesWithFewCandidates() {
+        List<String> candidates = Collections.singletonList(location + "vault-b.yml");
+        AnsibleVaultLocationIndex index = new AnsibleVaultLocationIndex(new DefaultResourceLoader(), candidates, ".yml");
+
+        Assert.assertThat(index.mayExist(location + "vault-b.yml"), is(true));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.config.ConfigFileApplicationListener;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class AnsibleVaultManifestTest {
+    private Path directory;
+    private Path vault;
+
+    @Before
+    public void setUp() throws IOException, GeneralSecurityException {
+        directory = Files.createTempDirectory("vault");
+        vault = directory.resolve("vault.yml");
+        try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(vault), "demo".toCharArray())) {
+            out.write("spring:\n  datasource:\n    password: TopSecret\nsecret: Hello\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void manifestContainsNamesOnly() throws IOException {
+        AnsibleVaultManifest manifest = AnsibleVaultManifest.create(new FileSystemResource(vault.toFile()), vaultId -> "demo".toCharArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manifest.write(out);
+
+        Assert.assertThat(out.toString("UTF-8"), not(containsString("TopSecret")));
+        AnsibleVaultManifest read = AnsibleVaultManifest.read(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertThat(read.getPropertyNames(), containsInAnyOrder("spring.datasource.password", "secret"));
+        Assert.assertThat(read.isFor(new FileSystemResource(vault.toFile())), equalTo(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongPasswordIsDetected() throws IOException {
+        AnsibleVaultManifest.create(new FileSystemResource(vault.toFile()), vaultId -> "wrong".toCharArray());
+    }
+
+    @Test
+    public void lazyVaultIsOnlyDecryptedForListedProperties() throws IOException {
+        writeManifest();
+        MockEnvironment environment = newEnvironment();
+
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+        AnsibleVaultLazyPropertySource propertySource = getLazyPropertySource(environment);
+
+        Assert.assertThat(environment.getProperty("server.port"), nullValue());
+        Assert.assertThat(environment.containsProperty("secret"), equalTo(true));
+        Assert.assertThat(propertySource.isLoaded(), equalTo(false));
+        Assert.assertThat(environment.getProperty("secret"), equalTo("Hello"));
+        Assert.assertThat(propertySource.isLoaded(), equalTo(true));
+    }
+
+    @Test
+    public void lazyVaultIsEnumeratedFromManifest() throws IOException {
+        writeManifest();
+        MockEnvironment environment = newEnvironment();
+
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+        AnsibleVaultLazyPropertySource propertySource = getLazyPropertySource(environment);
+
+        Assert.assertThat(Arrays.asList(propertySource.getPropertyNames()), containsInAnyOrder("spring.datasource.password", "secret"));
+        Assert.assertThat(propertySource.isLoaded(), equalTo(false));
+    }
+
+    @Test
+    public void manifestOfModifiedVaultIsIgnored() throws IOException {
+        writeManifest();
+        Files.write(vault, "\n".getBytes(), StandardOpenOption.APPEND);
+        MockEnvironment environment = newEnvironment();
+
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+
+        Assert.assertThat(findLazyPropertySource(environment), nullValue());
+        Assert.assertThat(environment.getProperty("secret"), equalTo("Hello"));
+    }
+
+    private void writeManifest() throws IOException {
+        AnsibleVaultManifest manifest = AnsibleVaultManifest.create(new FileSystemResource(vault.toFile()), vaultId -> "demo".toCharArray());
+        try (OutputStream out = Files.newOutputStream(directory.resolve("vault.yml" + AnsibleVaultManifest.FILE_SUFFIX))) {
+            manifest.write(out);
+        }
+    }
+
+    private MockEnvironment newEnvironment() {
+        return new MockEnvironment()
+                .withProperty(ConfigFileApplicationListener.CONFIG_LOCATION_PROPERTY, directory.toUri().toString())
+                .withProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, "demo")
+                .withProperty(AnsibleVaultEnvironment.VAULT_LAZY_PROPERTY, "true");
+    }
+
+    private AnsibleVaultLazyPropertySource getLazyPropertySource(MockEnvironment environment) {
+        AnsibleVaultLazyPropertySource propertySource = findLazyPropertySource(environment);
+        if (propertySource == null) {
+            throw new IllegalStateException("vault not found");
+        }
+        return propertySource;
+    }
+
+    private AnsibleVaultLazyPropertySource findLazyPropertySource(MockEnvironment environment) {
+        for (PropertySource<?> propertySource : environment.getPropertySources()) {
+            if (propertySource instanceof AnsibleVaultLazyPropertySource) {
+                return (AnsibleVaultLazyPropertySource) propertySource;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultLoadReport.PasswordSourceEntry;
+import de.trautwig.spring.boot.ansible.vault.AnsibleVaultLoadReport.PasswordSourceOutcome;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.env.Environment;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AnsibleVaultPasswordSourcesTest {
+    private final AnsibleVaultLoadReport report = new AnsibleVaultLoadReport();
+
+    @Test
+    public void sourcesAreDiscoveredOnceInOrder() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        List<AnsibleVaultPasswordSource> sources = AnsibleVaultPasswordSources.getSources(classLoader);
+        Assert.assertThat(AnsibleVaultPasswordSources.getSources(classLoader), sameInstance(sources));
+        Assert.assertThat(sources.get(0), instanceOf(AnsibleVaultScriptPasswordSource.class));
+        Assert.assertThat(sources.get(1), instanceOf(AnsibleVaultFilePasswordSource.class));
+        Assert.assertThat(sources.get(2), instanceOf(AnsibleVaultPropertyPasswordSource.class));
+    }
+
+    @Test
+    public void sequentialLookupStopsAtFirstAnswer() {
+        AtomicInteger calls = new AtomicInteger();
+        AnsibleVaultPasswordSources sources = new AnsibleVaultPasswordSources(new MockEnvironment(), Arrays.asList(
+                new FixedSource(null, 0, calls), new FixedSource("first", 0, calls), new FixedSource("second", 0, calls)), report);
+
+        Assert.assertThat(new String(sources.getPassword(null)), equalTo("first"));
+        Assert.assertThat(calls.get(), equalTo(2));
+        Assert.assertThat(getOutcomes(), contains(PasswordSourceOutcome.NOT_FOUND, PasswordSourceOutcome.FOUND));
+    }
+
+    @Test
+    public void concurrentLookupPrefersFirstSourceInOrder() {
+        AnsibleVaultPasswordSources sources = new AnsibleVaultPasswordSources(concurrent(5000), Arrays.asList(
+                new FixedSource("slow", 200, null), new FixedSource("fast", 0, null)), report);
+
+        Assert.assertThat(new String(sources.getPassword("dev")), equalTo("slow"));
+        Assert.assertThat(getOutcomes(), containsInAnyOrder(PasswordSourceOutcome.FOUND, PasswordSourceOutcome.FOUND));
+        Assert.assertThat(report.getPasswordSourceEntries().get(0).getVaultId(), equalTo("dev"));
+    }
+
+    @Test
+    public void concurrentLookupSkipsSourcesAfterDeadline() {
+        AnsibleVaultPasswordSources sources = new AnsibleVaultPasswordSources(concurrent(200), Arrays.asList(
+                new FixedSource("too-late", 10_000, null), new FixedSource("fast", 0, null)), report);
+
+        Assert.assertThat(new String(sources.getPassword(null)), equalTo("fast"));
+        Assert.assertThat(getOutcomes(), containsInAnyOrder(PasswordSourceOutcome.FOUND, PasswordSourceOutcome.TIMED_OUT));
+    }
+
+    @Test
+    public void concurrentLookupWithoutAnswer() {
+        AnsibleVaultPasswordSources sources = new AnsibleVaultPasswordSources(concurrent(5000), Arrays.asList(
+                new FixedSource(null, 0, null), new FixedSource(null, 50, null)), report);
+
+        Assert.assertThat(sources.getPassword(null), nullValue());
+    }
+
+    private MockEnvironment concurrent(long timeout) {
+        return new MockEnvironment()
+                .withProperty(AnsibleVaultEnvironment.VAULT_SECRET_CONCURRENT_PROPERTY, "true")
+                .withProperty(AnsibleVaultEnvironment.VAULT_SECRET_TIMEOUT_PROPERTY, String.valueOf(timeout));
+    }
+
+    private List<PasswordSourceOutcome> getOutcomes() {
+        return report.getPasswordSourceEntries().stream().map(PasswordSourceEntry::getOutcome).collect(Collectors.toList());
+    }
+
+    private static class FixedSource implements AnsibleVaultPasswordSource {
+        private final String password;
+        private final long delay;
+        private final AtomicInteger calls;
+
+        FixedSource(String password, long delay, AtomicInteger calls) {
+            this.password = password;
+            this.delay = delay;
+            this.calls = calls;
+        }
+
+        @Override
+        public char[] getVaultPassword(Environment environment) {
+            if (calls != null) {
+                calls.incrementAndGet();
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return password != null ? password.toCharArray() : null;
+        }
+
+        @Override
+        public char[] getVaultPassword(Environment environment, String vaultId) {
+            return getVaultPassword(environment);
+        }
+    }
+}
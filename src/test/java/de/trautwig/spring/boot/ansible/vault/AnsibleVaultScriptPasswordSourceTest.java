@@ -0,0 +1,104 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.Environment;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class AnsibleVaultScriptPasswordSourceTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("vault-scripts");
+        Assume.assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void executableFileIsRun() throws IOException {
+        Environment environment = withSecret(createScript("vault-pass.sh", "echo 'Hello World!'"));
+        Assert.assertThat(new String(new AnsibleVaultScriptPasswordSource().getVaultPassword(environment)), equalTo("Hello World!"));
+        Assert.assertThat(new AnsibleVaultFilePasswordSource().getVaultPassword(environment), nullValue());
+    }
+
+    @Test
+    public void clientScriptIsAskedForVaultId() throws IOException {
+        Environment environment = withSecret(createScript("vault-keyring-client.sh",
+                "if [ \"$1\" = --vault-id ]; then [ \"$2\" = dev ] && echo dev-password && exit 0; exit 2; fi; echo default-password"));
+        AnsibleVaultScriptPasswordSource source = new AnsibleVaultScriptPasswordSource();
+        Assert.assertThat(new String(source.getVaultPassword(environment)), equalTo("default-password"));
+        Assert.assertThat(new String(source.getVaultPassword(environment, "dev")), equalTo("dev-password"));
+        Assert.assertThat(source.getVaultPassword(environment, "prod"), nullValue());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void failingScriptIsAnError() throws IOException {
+        new AnsibleVaultScriptPasswordSource().getVaultPassword(withSecret(createScript("vault-pass.sh", "exit 1")));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void slowScriptTimesOut() throws IOException {
+        MockEnvironment environment = withSecret(createScript("vault-pass.sh", "sleep 10; echo too-late"));
+        environment.setProperty(AnsibleVaultEnvironment.VAULT_SECRET_TIMEOUT_PROPERTY, "200");
+        new AnsibleVaultScriptPasswordSource().getVaultPassword(environment);
+    }
+
+    @Test
+    public void plainFileIsNotRun() throws IOException {
+        Path secretFile = Files.write(directory.resolve("vault.secret"), "Hello World!".getBytes());
+        Environment environment = withSecret(secretFile);
+        Assert.assertThat(new AnsibleVaultScriptPasswordSource().getVaultPassword(environment), nullValue());
+        Assert.assertThat(new String(new AnsibleVaultFilePasswordSource().getVaultPassword(environment)), equalTo("Hello World!"));
+    }
+
+    @Test
+    public void executableDefaultFileIsReadNotRun() throws IOException {
+        Path defaultFile = createScript(AnsibleVaultFilePasswordSource.DEFAULT_PASSWORD_FILE, "echo 'Hello World!'");
+        Environment environment = new MockEnvironment();
+        Assert.assertThat(new AnsibleVaultScriptPasswordSource().getVaultPassword(environment), nullValue());
+        Assert.assertThat(new String(new AnsibleVaultFilePasswordSource(defaultFile.toFile()).getVaultPassword(environment)),
+                equalTo("#!/bin/sh\necho 'Hello World!'"));
+    }
+
+    private Path createScript(String name, String command) throws IOException {
+        Path script = Files.write(directory.resolve(name), ("#!/bin/sh\n" + command + "\n").getBytes());
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script;
+    }
+
+    private MockEnvironment withSecret(Path file) {
+        return new MockEnvironment().withProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, "@" + file);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.StreamSupport;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class AnsibleVaultWatcherTest {
+    private static final String NAME = "vault: [test]";
+
+    private Path directory;
+    private Path file;
+    private MockEnvironment environment;
+    private AtomicInteger loads;
+    private AnsibleVaultWatcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("vault");
+        file = Files.write(directory.resolve("vault.yml"), "secret=one".getBytes(StandardCharsets.UTF_8));
+        environment = new MockEnvironment();
+        environment.getPropertySources().addLast(readProperties(new FileSystemResource(file.toFile())).get(0));
+        loads = new AtomicInteger();
+        watcher = new AnsibleVaultWatcher(environment, resource -> {
+            loads.incrementAndGet();
+            return readProperties(resource);
+        }, 50);
+        watcher.watch(NAME, new FileSystemResource(file.toFile()), Collections.singletonList(NAME));
+        watcher.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        watcher.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void modifiedVaultIsReloaded() throws Exception {
+        Files.write(file, "secret=two".getBytes(StandardCharsets.UTF_8));
+        await(() -> watcher.getReloadCount() == 1);
+        Assert.assertThat(environment.getProperty("secret"), equalTo("two"));
+        Assert.assertThat(loads.get(), equalTo(1));
+    }
+
+    @Test
+    public void unchangedVaultIsNotReloaded() throws Exception {
+        Files.write(file, "secret=one".getBytes(StandardCharsets.UTF_8));
+        Files.write(file, "secret=two".getBytes(StandardCharsets.UTF_8));
+        await(() -> watcher.getReloadCount() == 1);
+        Files.write(file, "secret=two".getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(500);
+        Assert.assertThat(loads.get(), equalTo(1));
+    }
+
+    @Test
+    public void failedReloadKeepsPreviousProperties() throws Exception {
+        Files.write(file, "invalid".getBytes(StandardCharsets.UTF_8));
+        await(() -> watcher.getFailureCount() == 1);
+        Assert.assertThat(environment.getProperty("secret"), equalTo("one"));
+    }
+
+    @Test
+    public void documentsAreReplacedTogether() throws Exception {
+        Files.write(file, "first=two\nsecond=two".getBytes(StandardCharsets.UTF_8));
+        await(() -> watcher.getReloadCount() == 1);
+        Assert.assertThat(environment.getProperty("first"), equalTo("two"));
+        Assert.assertThat(environment.getProperty("second"), equalTo("two"));
+        // a single property source holds all documents of the Vault, so that they are swapped at once
+        long vaultSources = StreamSupport.stream(environment.getPropertySources().spliterator(), false)
+                .filter(propertySource -> propertySource.getName().startsWith(NAME)).count();
+        Assert.assertThat(vaultSources, equalTo(1L));
+    }
+
+    /**
+     * Reads plain "key=value" lines, each as a document of its own, so that the test does not depend on encryption.
+     */
+    private static List<PropertySource<?>> readProperties(Resource resource) {
+        try {
+            List<String> lines = Files.readAllLines(resource.getFile().toPath(), StandardCharsets.UTF_8);
+            List<PropertySource<?>> documents = new ArrayList<>();
+            for (String line : lines) {
+                String[] entry = line.split("=", 2);
+                if (entry.length != 2) {
+                    throw new IllegalStateException("invalid content: " + line);
+                }
+                String name = lines.size() != 1 ? NAME + " (document #" + documents.size() + ")" : NAME;
+                documents.add(new MapPropertySource(name, Collections.singletonMap(entry[0], entry[1])));
+            }
+            return documents;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
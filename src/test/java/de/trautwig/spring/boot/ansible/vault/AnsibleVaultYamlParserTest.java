@@ -0,0 +1,143 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AnsibleVaultYamlParserTest {
+    private static final Resource VAULT = new ByteArrayResource(new byte[0], "vault.yml");
+
+    @Test
+    public void valuesAreDecodedOnRequest() throws IOException {
+        List<PropertySource<?>> propertySources = load("spring:\n"
+                + "  datasource:\n"
+                + "    password: s3cr3t # not part of the value\n"
+                + "    username: 'it''s me'\n"
+                + "  escaped: \"tab\\tand \\u00e9\"\n"
+                + "hosts:\n"
+                + "- alpha\n"
+                + "- beta\n"
+                + "port: 8080\n"
+                + "empty:\n");
+
+        Assert.assertThat(propertySources, hasSize(1));
+        AnsibleVaultPropertySource propertySource = (AnsibleVaultPropertySource) propertySources.get(0);
+        Assert.assertThat(propertySource.getName(), equalTo("vault"));
+        Assert.assertThat(propertySource.getPropertyNames(), arrayContaining("empty", "hosts[0]", "hosts[1]", "port",
+                "spring.datasource.password", "spring.datasource.username", "spring.escaped"));
+        Assert.assertThat(propertySource.getProperty("spring.datasource.password"), equalTo("s3cr3t"));
+        Assert.assertThat(propertySource.getProperty("spring.datasource.username"), equalTo("it's me"));
+        Assert.assertThat(propertySource.getProperty("spring.escaped"), equalTo("tab\tand \u00e9"));
+        Assert.assertThat(propertySource.getProperty("hosts[1]"), equalTo("beta"));
+        Assert.assertThat(propertySource.getProperty("port"), equalTo(8080));
+        Assert.assertThat(propertySource.getProperty("empty"), equalTo(""));
+        Assert.assertThat(propertySource.getProperty("spring"), nullValue());
+    }
+
+    @Test
+    public void quotedScalarsMatchSpringBoot() throws IOException {
+        String yaml = "apostrophe: \"it's\"\n"
+                + "password: \"pa'ss\"\n"
+                + "quote: \"a\\\"b\"\n"
+                + "hex: \"\\x41\"\n"
+                + "doubled: 'it''s'\n";
+        AnsibleVaultPropertySource propertySource = (AnsibleVaultPropertySource) load(yaml).get(0);
+        Resource decrypted = new ByteArrayResource(yaml.getBytes(StandardCharsets.UTF_8), "decrypted vault.yml");
+        PropertySource<?> expected = new YamlPropertySourceLoader().load("vault", decrypted).get(0);
+
+        for (String name : propertySource.getPropertyNames()) {
+            Assert.assertThat(name, propertySource.getProperty(name), equalTo(expected.getProperty(name).toString()));
+        }
+        Assert.assertThat(propertySource.getProperty("apostrophe"), equalTo("it's"));
+        Assert.assertThat(propertySource.getProperty("password"), equalTo("pa'ss"));
+        Assert.assertThat(propertySource.getProperty("quote"), equalTo("a\"b"));
+        Assert.assertThat(propertySource.getProperty("hex"), equalTo("A"));
+    }
+
+    @Test
+    public void typedValuesAreConstructedOnce() throws IOException {
+        AnsibleVaultPropertySource propertySource = (AnsibleVaultPropertySource) load("port: 8080\n").get(0);
+
+        Object port = propertySource.getProperty("port");
+        Assert.assertThat(port, equalTo(8080));
+        Assert.assertThat(propertySource.getProperty("port"), sameInstance(port));
+    }
+
+    @Test
+    public void documentsAreNumbered() throws IOException {
+        List<PropertySource<?>> propertySources = load("secret: one\n---\nsecret: two\n");
+
+        Assert.assertThat(propertySources, hasSize(2));
+        Assert.assertThat(propertySources.get(1).getName(), equalTo("vault (document #1)"));
+        Assert.assertThat(propertySources.get(1).getProperty("secret"), equalTo("two"));
+    }
+
+    @Test
+    public void closingZeroizesPlaintext() throws IOException {
+        AnsibleVaultPropertySource propertySource = (AnsibleVaultPropertySource) load("secret: TopSecret\n").get(0);
+        propertySource.close();
+
+        Assert.assertThat(propertySource.getProperty("secret"), nullValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedPlaintextCannotBeCopied() throws IOException {
+        AnsibleVaultPlaintext plaintext = AnsibleVaultPlaintext.read(new ByteArrayInputStream("secret: TopSecret\n".getBytes(StandardCharsets.UTF_8)));
+        plaintext.close();
+
+        plaintext.toByteArray();
+    }
+
+    @Test
+    public void unsupportedYamlFallsBack() throws IOException {
+        List<PropertySource<?>> propertySources = load("anchor: &value TopSecret\n"
+                + "alias: *value\n"
+                + "flow: [a, b]\n"
+                + "block: |\n"
+                + "  multi\n"
+                + "  line\n");
+
+        Assert.assertThat(propertySources.get(0), not(instanceOf(AnsibleVaultPropertySource.class)));
+        EnumerablePropertySource<?> propertySource = (EnumerablePropertySource<?>) propertySources.get(0);
+        Assert.assertThat(propertySource.getProperty("alias").toString(), equalTo("TopSecret"));
+        Assert.assertThat(propertySource.getProperty("flow[1]").toString(), equalTo("b"));
+        Assert.assertThat(propertySource.getProperty("block").toString(), equalTo("multi\nline\n"));
+    }
+
+    private List<PropertySource<?>> load(String yaml) throws IOException {
+        Resource decrypted = new ByteArrayResource(yaml.getBytes(StandardCharsets.UTF_8), "decrypted vault.yml");
+        return AnsibleVaultYamlParser.load("vault", VAULT, decrypted, new YamlPropertySourceLoader());
+    }
+}
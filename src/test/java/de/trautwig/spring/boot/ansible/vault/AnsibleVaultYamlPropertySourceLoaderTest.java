@@ -0,0 +1,126 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.config.ConfigFileApplicationListener;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class AnsibleVaultYamlPropertySourceLoaderTest {
+
+    @Test
+    public void decryptsInlineValuesOnFirstAccess() throws Exception {
+        String yaml = "plain: value\n" +
+                "secret: !vault |\n" +
+                indent(encryptString("TopSecret", "demo")) +
+                "unused: !vault |\n" +
+                indent(encryptString("NeverRead", "demo"));
+        List<PropertySource<?>> propertySources = new AnsibleVaultYamlPropertySourceLoader().load("application.yml", new ByteArrayResource(yaml.getBytes()));
+        Assert.assertThat(propertySources.get(0), instanceOf(AnsibleVaultInlinePropertySource.class));
+
+        MockEnvironment environment = new MockEnvironment().withProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, "demo");
+        environment.getPropertySources().addLast(propertySources.get(0));
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+
+        Assert.assertThat(environment.getProperty("plain"), equalTo("value"));
+        Assert.assertThat(environment.getProperty("secret"), equalTo("TopSecret"));
+        Object unused = ((AnsibleVaultInlinePropertySource) propertySources.get(0)).getSource().get("unused");
+        Assert.assertThat(((AnsibleVaultInlinePropertySource.EncryptedValue) unused).isDecrypted(), is(false));
+    }
+
+    @Test
+    public void filesWithoutVaultTagAreLoadedAsUsual() throws Exception {
+        List<PropertySource<?>> propertySources = new AnsibleVaultYamlPropertySourceLoader().load("application.yml", new ByteArrayResource("plain: value\n".getBytes()));
+        Assert.assertThat(propertySources.get(0).getProperty("plain").toString(), equalTo("value"));
+        Assert.assertThat(propertySources.get(0) instanceof AnsibleVaultInlinePropertySource, is(false));
+    }
+
+    @Test
+    public void vaultTextOutsideOfTagsIsIgnored() throws Exception {
+        String yaml = "# values may be encrypted with !vault\nplain: \"!vault is not a tag here\"\n";
+        List<PropertySource<?>> propertySources = new AnsibleVaultYamlPropertySourceLoader().load("application.yml", new ByteArrayResource(yaml.getBytes()));
+        Assert.assertThat(propertySources.get(0).getProperty("plain").toString(), equalTo("!vault is not a tag here"));
+        Assert.assertThat(propertySources.get(0) instanceof AnsibleVaultInlinePropertySource, is(false));
+    }
+
+    @Test
+    public void passwordIsDeterminedOnceForAllValues() throws Exception {
+        Path directory = Files.createTempDirectory("vault-scripts");
+        try {
+            Assume.assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+            Path calls = directory.resolve("calls");
+            Path script = Files.write(directory.resolve("vault-pass.sh"), ("#!/bin/sh\necho >> " + calls + "\necho demo\n").getBytes());
+            Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+            String yaml = "first: !vault |\n" + indent(encryptString("One", "demo")) +
+                    "second: !vault |\n" + indent(encryptString("Two", "demo"));
+            List<PropertySource<?>> propertySources = new AnsibleVaultYamlPropertySourceLoader().load("application.yml", new ByteArrayResource(yaml.getBytes()));
+
+            // no Vault files in the search location, so the script is only run for the inline values
+            MockEnvironment environment = new MockEnvironment()
+                    .withProperty(ConfigFileApplicationListener.CONFIG_LOCATION_PROPERTY, directory.toUri().toString())
+                    .withProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, "@" + script);
+            environment.getPropertySources().addLast(propertySources.get(0));
+            new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+
+            Assert.assertThat(environment.getProperty("first"), equalTo("One"));
+            Assert.assertThat(environment.getProperty("second"), equalTo("Two"));
+            Assert.assertThat(Files.readAllLines(calls).size(), equalTo(1));
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void encryptedValuesCannotBeReadWithoutPassword() throws Exception {
+        String yaml = "secret: !vault |\n" + indent(encryptString("TopSecret", "demo"));
+        List<PropertySource<?>> propertySources = new AnsibleVaultYamlPropertySourceLoader().load("application.yml", new ByteArrayResource(yaml.getBytes()));
+        propertySources.get(0).getProperty("secret");
+    }
+
+    private static String encryptString(String plaintext, String password) throws Exception {
+        ByteArrayOutputStream vault = new ByteArrayOutputStream();
+        try (OutputStream out = new AnsibleVaultOutputStream(vault, password.toCharArray())) {
+            out.write(plaintext.getBytes());
+        }
+        return new String(vault.toByteArray());
+    }
+
+    private static String indent(String text) {
+        StringBuilder result = new StringBuilder();
+        for (String line : text.split("\n")) {
+            result.append("  ").append(line).append('\n');
+        }
+        return result.toString();
+    }
+}
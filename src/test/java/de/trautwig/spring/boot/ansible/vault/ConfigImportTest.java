@@ -0,0 +1,86 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ConfigImportTest {
+
+    @Test
+    public void importedVaultIsLoaded() {
+        MockEnvironment environment = createEnvironment("ansible-vault:classpath:/vault.yml");
+        postProcess(environment);
+
+        Assert.assertThat(environment.getProperty("secret"), equalTo("TopSecret"));
+    }
+
+    @Test
+    public void profileSpecificVariantOfImportTakesPrecedence() {
+        MockEnvironment environment = createEnvironment("ansible-vault:classpath:/vault.yml");
+        environment.setActiveProfiles("profile3");
+        postProcess(environment);
+
+        Assert.assertThat(environment.getProperty("secret"), equalTo("Profile3TopSecret"));
+    }
+
+    @Test
+    public void missingImportFails() {
+        MockEnvironment environment = createEnvironment("ansible-vault:classpath:/does-not-exist.yml");
+        try {
+            postProcess(environment);
+            Assert.fail("a missing vault which is not optional should throw an exception");
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage().contains("classpath:/does-not-exist.yml"), is(true));
+        }
+    }
+
+    @Test
+    public void missingOptionalImportIsIgnored() {
+        MockEnvironment environment = createEnvironment("optional:ansible-vault:classpath:/does-not-exist.yml");
+        postProcess(environment);
+
+        Assert.assertThat(environment.getProperty("secret"), nullValue());
+    }
+
+    @Test
+    public void otherImportsAreIgnored() {
+        MockEnvironment environment = createEnvironment("classpath:/does-not-exist.properties");
+        postProcess(environment);
+
+        Assert.assertThat(environment.getProperty("secret"), nullValue());
+    }
+
+    private MockEnvironment createEnvironment(String imports) {
+        // do not find the Vaults in the default locations
+        return new MockEnvironment()
+                .withProperty(AnsibleVaultEnvironment.VAULT_NAME_PROPERTY, "@does-not-exist")
+                .withProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, "demo")
+                .withProperty("spring.config.import", imports);
+    }
+
+    private void postProcess(MockEnvironment environment) {
+        SpringApplication application = new SpringApplication();
+        application.setEnvironment(environment);
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, application);
+    }
+}
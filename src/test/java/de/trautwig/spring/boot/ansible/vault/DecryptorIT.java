@@ -0,0 +1,64 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.equalTo;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+public class DecryptorIT {
+
+	@Autowired
+	ConfigurableApplicationContext context;
+
+	@Autowired
+	AnsibleVaultDecryptor decryptor;
+
+	@Test
+	public void decryptorIsClosedWithTheContext() throws Exception {
+		String vault;
+		try (InputStream in = getClass().getResourceAsStream("/vault_hello.yml")) {
+			vault = StreamUtils.copyToString(in, StandardCharsets.US_ASCII);
+		}
+		Assert.assertThat(decryptor.decryptToString(vault), equalTo("Hello World!\n"));
+
+		context.close();
+		try {
+			decryptor.decryptToString(vault);
+			Assert.fail("decryptor has not been closed");
+		} catch (IllegalStateException e) {
+			Assert.assertThat(e.getMessage(), equalTo("vault decryptor has been closed"));
+		}
+	}
+
+	@SpringBootApplication
+	public static class TestApplication {}
+}
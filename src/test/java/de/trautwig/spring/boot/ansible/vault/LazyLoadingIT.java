@@ -0,0 +1,64 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.hamcrest.Matchers.equalTo;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@TestPropertySource(properties = {"spring.profiles.active=profile3", "ansible.vault.lazy=true"})
+public class LazyLoadingIT {
+
+	@Autowired
+	ConfigurableEnvironment environment;
+
+	@Test
+	public void vaultIsOnlyDecryptedOnceSecretIsRead() {
+		AnsibleVaultLazyPropertySource profileVault = getLazyPropertySource("vault-profile3.yml");
+		AnsibleVaultLazyPropertySource defaultVault = getLazyPropertySource("vault.yml");
+		Assert.assertThat(profileVault.isLoaded(), equalTo(false));
+		Assert.assertThat(defaultVault.isLoaded(), equalTo(false));
+
+		Assert.assertThat(environment.getProperty("secret"), equalTo("Profile3TopSecret"));
+
+		Assert.assertThat(profileVault.isLoaded(), equalTo(true));
+		Assert.assertThat(defaultVault.isLoaded(), equalTo(false));
+	}
+
+	private AnsibleVaultLazyPropertySource getLazyPropertySource(String filename) {
+		for (PropertySource<?> propertySource : environment.getPropertySources()) {
+			if (propertySource instanceof AnsibleVaultLazyPropertySource
+					&& filename.equals(((AnsibleVaultLazyPropertySource) propertySource).getSource().getFilename())) {
+				return (AnsibleVaultLazyPropertySource) propertySource;
+			}
+		}
+		throw new IllegalStateException("vault not found: " + filename);
+	}
+
+	@SpringBootApplication
+	public static class TestApplication {}
+}
@@ -48,4 +48,19 @@ public class NoPasswordProvidedTest {
         new AnsibleVaultEnvironment().postProcessEnvironment(environment, application);
     }
 
+    @Test
+    public void throwExceptionOnFirstAccessIfVaultIsLoadedLazily() {
+        MockEnvironment environment = new MockEnvironment().withProperty(AnsibleVaultEnvironment.VAULT_LAZY_PROPERTY, "true");
+        SpringApplication application = new SpringApplication();
+        application.setEnvironment(environment);
+
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, application);
+        try {
+            environment.getProperty("secret");
+            Assert.fail("an existing vault which cannot be opened should throw an exception");
+        } catch (Exception e) {
+            Assert.assertThat(e.getMessage().contains("ansible.vault.secret"), is(true));
+        }
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.config.ConfigFileApplicationListener;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class VaultIdPasswordTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException, GeneralSecurityException {
+        directory = Files.createTempDirectory("vault");
+        write("vault-dev.yml", "dev-secret", "dev", "secret: DevTopSecret\n");
+        write("vault.yml", "default-secret", "default", "fallback: DefaultTopSecret\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void passwordIsLookedUpByVaultId() {
+        MockEnvironment environment = newEnvironment()
+                .withProperty(AnsibleVaultEnvironment.getVaultSecretProperty("dev"), "dev-secret");
+        environment.setActiveProfiles("dev");
+
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+
+        Assert.assertThat(environment.getProperty("secret"), equalTo("DevTopSecret"));
+        Assert.assertThat(environment.getProperty("fallback"), equalTo("DefaultTopSecret"));
+    }
+
+    @Test
+    public void defaultPasswordIsUsedForUnknownVaultId() {
+        MockEnvironment environment = newEnvironment();
+
+        new AnsibleVaultEnvironment().postProcessEnvironment(environment, new SpringApplication());
+
+        Assert.assertThat(environment.getProperty("fallback"), equalTo("DefaultTopSecret"));
+    }
+
+    private MockEnvironment newEnvironment() {
+        return new MockEnvironment()
+                .withProperty(ConfigFileApplicationListener.CONFIG_LOCATION_PROPERTY, directory.toUri().toString())
+                .withProperty(AnsibleVaultEnvironment.VAULT_SECRET_PROPERTY, "default-secret");
+    }
+
+    private void write(String name, String password, String vaultId, String content) throws IOException, GeneralSecurityException {
+        try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(directory.resolve(name)), password.toCharArray(), vaultId)) {
+            out.write(content.getBytes());
+        }
+    }
+}
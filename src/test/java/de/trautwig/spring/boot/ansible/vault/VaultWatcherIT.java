@@ -0,0 +1,85 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault;
+
+import de.trautwig.spring.boot.ansible.vault.io.AnsibleVaultOutputStream;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@TestPropertySource(properties = {"spring.config.additional-location=file:./target/vault-watcher-it/", "ansible.vault.watch=true", "ansible.vault.watch-delay=50"})
+public class VaultWatcherIT {
+	private static final Path VAULT = Paths.get("target", "vault-watcher-it", "vault.yml");
+
+	@Autowired
+	ApplicationContext context;
+
+	@Autowired
+	Environment environment;
+
+	@BeforeClass
+	public static void createVault() throws Exception {
+		Files.createDirectories(VAULT.getParent());
+		writeVault("watched: one");
+	}
+
+	@Test
+	public void watcherIsRegisteredAsBean() {
+		Assert.assertThat(context.containsBean(AnsibleVaultWatcher.BEAN_NAME), equalTo(true));
+	}
+
+	@Test
+	public void modifiedVaultIsReloaded() throws Exception {
+		AnsibleVaultWatcher watcher = context.getBean(AnsibleVaultWatcher.BEAN_NAME, AnsibleVaultWatcher.class);
+		long reloads = watcher.getReloadCount();
+
+		writeVault("watched: " + (reloads + 2));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (watcher.getReloadCount() == reloads && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		Assert.assertThat(watcher.getReloadCount(), greaterThan(reloads));
+		Assert.assertThat(environment.getProperty("watched"), equalTo(String.valueOf(reloads + 2)));
+	}
+
+	private static void writeVault(String content) throws Exception {
+		try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(VAULT), "demo".toCharArray())) {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@SpringBootApplication
+	public static class TestApplication {}
+}
@@ -0,0 +1,68 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AnsibleVaultCryptoContextTest {
+    private static final byte[] DATA = "Hello World!".getBytes();
+
+    @Test
+    public void contextIsReusedOnSameThread() throws Exception {
+        AnsibleVaultCryptoContext first;
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            first = crypto;
+        }
+        try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+            Assert.assertThat(crypto, sameInstance(first));
+        }
+    }
+
+    @Test
+    public void nestedContextIsSeparate() throws Exception {
+        try (AnsibleVaultCryptoContext outer = AnsibleVaultCryptoContext.acquire();
+             AnsibleVaultCryptoContext inner = AnsibleVaultCryptoContext.acquire()) {
+            Assert.assertThat(inner, not(sameInstance(outer)));
+        }
+    }
+
+    @Test
+    public void reusedInstancesMatchNewInstances() throws Exception {
+        for (String password : new String[]{"demo", "other", "demo"}) {
+            AnsibleVaultEncryptionKeys keys = new AnsibleVaultEncryptionKeys(password.toCharArray(), new byte[]{0x01, 0x02});
+
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(keys.getHmacKey());
+            Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+
+            try (AnsibleVaultCryptoContext crypto = AnsibleVaultCryptoContext.acquire()) {
+                Assert.assertThat(crypto.getMac(keys.getHmacKey()).doFinal(DATA), equalTo(mac.doFinal(DATA)));
+                Assert.assertThat(crypto.getCipher(Cipher.ENCRYPT_MODE, keys.getCipherKey(), keys.getIv()).doFinal(DATA),
+                        equalTo(cipher.doFinal(DATA)));
+            }
+        }
+    }
+}
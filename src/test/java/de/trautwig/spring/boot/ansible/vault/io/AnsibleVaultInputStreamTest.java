@@ -17,12 +17,20 @@ package de.trautwig.spring.boot.ansible.vault.io;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.SignatureException;
+import java.util.Random;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 
 public class AnsibleVaultInputStreamTest {
 
@@ -55,4 +63,66 @@ public class AnsibleVaultInputStreamTest {
         byte[] buffer = new byte[1024];
         in.read(buffer, 0, buffer.length);
     }
+
+    @Test
+    public void loadsSuccessfullyFromResource() throws Exception {
+        AnsibleVaultInputStream in = new AnsibleVaultInputStream(new ClassPathResource("vault_hello.yml"), "demo".toCharArray());
+        byte[] buffer = new byte[1024];
+        int len = in.read(buffer, 0, buffer.length);
+        Assert.assertThat(new String(buffer, 0, len), equalTo("Hello World!\n"));
+        Assert.assertThat(in.read(), equalTo(-1));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void detectsHmacMismatchFromResource() throws Exception {
+        AnsibleVaultInputStream in = new AnsibleVaultInputStream(new ClassPathResource("vault_tampered.yml"), "demo".toCharArray());
+        byte[] buffer = new byte[1024];
+        in.read(buffer, 0, buffer.length);
+    }
+
+    @Test
+    public void recordsTimings() throws Exception {
+        AnsibleVaultTimings timings = new AnsibleVaultTimings();
+        AnsibleVaultInputStream in = new AnsibleVaultInputStream(new ClassPathResource("vault_hello.yml"), vaultId -> "demo".toCharArray(), timings);
+        while (in.read() >= 0) {
+            // consume the Vault
+        }
+        Assert.assertThat(timings.getNanos(AnsibleVaultTimings.Phase.KEY_DERIVATION), greaterThan(0L));
+        Assert.assertThat(timings.getNanos(AnsibleVaultTimings.Phase.HEX_DECODE), greaterThan(0L));
+        Assert.assertThat(timings.getNanos(AnsibleVaultTimings.Phase.DECRYPT), greaterThan(0L));
+        Assert.assertThat(timings.getNanos(AnsibleVaultTimings.Phase.PARSE), equalTo(0L));
+    }
+
+    @Test
+    public void loadsSuccessfullyFromFile() throws Exception {
+        AnsibleVaultInputStream in = new AnsibleVaultInputStream(new ClassPathResource("vault_hello.yml").getFile(), "demo".toCharArray());
+        byte[] buffer = new byte[1024];
+        int len = in.read(buffer, 0, buffer.length);
+        Assert.assertThat(new String(buffer, 0, len), equalTo("Hello World!\n"));
+        Assert.assertThat(in.read(), equalTo(-1));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void detectsHmacMismatchFromFile() throws Exception {
+        new AnsibleVaultInputStream(new ClassPathResource("vault_tampered.yml").getFile(), "demo".toCharArray());
+    }
+
+    @Test
+    public void loadsLargeFileInTwoPasses() throws Exception {
+        byte[] plaintext = new byte[300_000];
+        new Random(42).nextBytes(plaintext);
+        Path vault = Files.createTempFile("vault", ".yml");
+        try {
+            try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(vault), "demo".toCharArray())) {
+                out.write(plaintext);
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            try (AnsibleVaultInputStream in = new AnsibleVaultInputStream(vault.toFile(), "demo".toCharArray())) {
+                StreamUtils.copy(in, result);
+            }
+            Assert.assertThat(result.toByteArray(), equalTo(plaintext));
+        } finally {
+            Files.delete(vault);
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class AnsibleVaultKeyCacheTest {
+    private static final byte[] SALT = {0x01, 0x02, 0x03, 0x04};
+
+    @Test
+    public void samePasswordAndSaltIsDerivedOnce() throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(4);
+        AnsibleVaultEncryptionKeys first = cache.getKeys("demo".toCharArray(), SALT);
+        AnsibleVaultEncryptionKeys second = cache.getKeys("demo".toCharArray(), SALT);
+
+        Assert.assertThat(second.getCipherKey().getEncoded(), equalTo(first.getCipherKey().getEncoded()));
+        Assert.assertThat(cache.getMissCount(), equalTo(1L));
+        Assert.assertThat(cache.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void differentPasswordIsDerivedAgain() throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(4);
+        AnsibleVaultEncryptionKeys first = cache.getKeys("demo".toCharArray(), SALT);
+        AnsibleVaultEncryptionKeys second = cache.getKeys("other".toCharArray(), SALT);
+
+        Assert.assertThat(second.getCipherKey().getEncoded(), not(equalTo(first.getCipherKey().getEncoded())));
+        Assert.assertThat(cache.getMissCount(), equalTo(2L));
+        Assert.assertThat(cache.getHitCount(), equalTo(0L));
+    }
+
+    @Test
+    public void destroyingReturnedKeysDoesNotAffectCache() throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(4);
+        AnsibleVaultEncryptionKeys first = cache.getKeys("demo".toCharArray(), SALT);
+        byte[] expected = first.getCipherKey().getEncoded();
+        first.destroy();
+
+        Assert.assertThat(cache.getKeys("demo".toCharArray(), SALT).getCipherKey().getEncoded(), equalTo(expected));
+    }
+
+    @Test
+    public void concurrentRequestsWaitForSingleDerivation() throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<AnsibleVaultEncryptionKeys>> keys = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                keys.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getKeys("demo".toCharArray(), SALT);
+                }));
+            }
+            start.countDown();
+
+            byte[] expected = keys.get(0).get().getCipherKey().getEncoded();
+            for (Future<AnsibleVaultEncryptionKeys> key : keys) {
+                Assert.assertThat(key.get().getCipherKey().getEncoded(), equalTo(expected));
+            }
+            Assert.assertThat(cache.getMissCount(), equalTo(1L));
+            Assert.assertThat(cache.getHitCount(), equalTo(3L));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void eldestEntryIsEvicted() throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(1);
+        cache.getKeys("demo".toCharArray(), new byte[]{0x01});
+        cache.getKeys("demo".toCharArray(), new byte[]{0x02});
+
+        Assert.assertThat(cache.size(), equalTo(1));
+        Assert.assertThat(cache.getEvictionCount(), equalTo(1L));
+    }
+
+    @Test
+    public void closeRemovesAllEntries() throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(4);
+        AnsibleVaultEncryptionKeys keys = cache.getKeys("demo".toCharArray(), SALT);
+        cache.close();
+
+        Assert.assertThat(cache.size(), equalTo(0));
+        Assert.assertThat(keys.isDestroyed(), is(false));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class AnsibleVaultOutputStreamTest {
+
+    @Test
+    public void writesSameVaultAsAnsible() throws Exception {
+        byte[] salt = Hexlify.unhexlify("b3052b4696f25d447399a04456792f31de90fdd6bc6457ea3bb3756f3125ceb4");
+        ByteArrayOutputStream vault = new ByteArrayOutputStream();
+        try (OutputStream out = new AnsibleVaultOutputStream(vault, "demo".toCharArray(), salt)) {
+            out.write("Hello World!\n".getBytes());
+        }
+
+        byte[] expected = StreamUtils.copyToByteArray(getClass().getResourceAsStream("/vault_hello.yml"));
+        Assert.assertThat(vault.toByteArray(), equalTo(expected));
+    }
+
+    @Test
+    public void roundTripsThroughInputStream() throws Exception {
+        for (int size : new int[]{0, 1, 15, 16, 17, 10_000}) {
+            byte[] plaintext = new byte[size];
+            new Random(size).nextBytes(plaintext);
+
+            ByteArrayOutputStream vault = new ByteArrayOutputStream();
+            try (OutputStream out = new AnsibleVaultOutputStream(vault, "demo".toCharArray())) {
+                out.write(plaintext);
+            }
+
+            try (InputStream in = new AnsibleVaultInputStream(new ByteArrayInputStream(vault.toByteArray()), "demo".toCharArray())) {
+                Assert.assertThat(StreamUtils.copyToByteArray(in), equalTo(plaintext));
+            }
+        }
+    }
+
+    @Test
+    public void wrapsLinesAt80Columns() throws Exception {
+        ByteArrayOutputStream vault = new ByteArrayOutputStream();
+        try (OutputStream out = new AnsibleVaultOutputStream(vault, "demo".toCharArray())) {
+            out.write(new byte[1000]);
+        }
+
+        String[] lines = new String(vault.toByteArray()).split("\n");
+        Assert.assertThat(lines[0], equalTo("$ANSIBLE_VAULT;1.1;AES256"));
+        for (int i = 1; i < lines.length; i++) {
+            Assert.assertThat(lines[i].length(), lessThanOrEqualTo(80));
+        }
+    }
+
+    @Test
+    public void writesVaultIdInFormat12() throws Exception {
+        ByteArrayOutputStream vault = new ByteArrayOutputStream();
+        try (OutputStream out = new AnsibleVaultOutputStream(vault, "dev-secret".toCharArray(), "dev")) {
+            out.write("Hello World!\n".getBytes());
+        }
+        Assert.assertThat(new String(vault.toByteArray()).split("\n")[0], equalTo("$ANSIBLE_VAULT;1.2;AES256;dev"));
+
+        List<String> vaultIds = new ArrayList<>();
+        try (InputStream in = new AnsibleVaultInputStream(new ByteArrayInputStream(vault.toByteArray()), vaultId -> {
+            vaultIds.add(vaultId);
+            return "dev-secret".toCharArray();
+        }, new AnsibleVaultTimings())) {
+            Assert.assertThat(new String(StreamUtils.copyToByteArray(in)), equalTo("Hello World!\n"));
+        }
+        Assert.assertThat(vaultIds, contains("dev"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidVaultId() throws Exception {
+        new AnsibleVaultOutputStream(new ByteArrayOutputStream(), "demo".toCharArray(), "dev;prod");
+    }
+}
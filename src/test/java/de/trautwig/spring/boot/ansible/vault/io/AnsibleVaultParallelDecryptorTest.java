@@ -0,0 +1,122 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class AnsibleVaultParallelDecryptorTest {
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        AnsibleVaultEncryptionKeys keys = new AnsibleVaultEncryptionKeys("demo".toCharArray(), new byte[]{0x01, 0x02, 0x03, 0x04});
+        byte[] ciphertext = new byte[3 * AnsibleVaultParallelDecryptor.PARALLEL_THRESHOLD + 5];
+        new Random(42).nextBytes(ciphertext);
+
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, keys.getCipherKey(), new IvParameterSpec(keys.getIv()));
+        byte[] expected = cipher.doFinal(ciphertext);
+
+        CountingPool pool = new CountingPool(4);
+        try {
+            byte[] buffer = ciphertext.clone();
+            Assert.assertThat(AnsibleVaultParallelDecryptor.decrypt(keys, buffer, buffer.length, pool), equalTo(buffer.length));
+            Assert.assertThat(buffer, equalTo(expected));
+            Assert.assertThat(pool.invocations.get(), equalTo(1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void largeVaultFileIsDecryptedInParallel() throws Exception {
+        byte[] plaintext = new byte[2 * AnsibleVaultParallelDecryptor.PARALLEL_THRESHOLD + 7];
+        new Random(7).nextBytes(plaintext);
+        File file = File.createTempFile("vault", ".yml");
+        CountingPool pool = new CountingPool(4);
+        try {
+            try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(file.toPath()), "demo".toCharArray())) {
+                out.write(plaintext);
+            }
+
+            try (InputStream in = new AnsibleVaultInputStream(file, vaultId -> "demo".toCharArray(), new AnsibleVaultTimings(), pool)) {
+                Assert.assertThat(readAll(in), equalTo(plaintext));
+            }
+            Assert.assertThat(pool.invocations.get(), equalTo(1));
+        } finally {
+            pool.shutdown();
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    public void largeVaultFileIsStreamedOnSingleCore() throws Exception {
+        byte[] plaintext = new byte[2 * AnsibleVaultParallelDecryptor.PARALLEL_THRESHOLD + 7];
+        new Random(7).nextBytes(plaintext);
+        File file = File.createTempFile("vault", ".yml");
+        CountingPool pool = new CountingPool(1);
+        try {
+            try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(file.toPath()), "demo".toCharArray())) {
+                out.write(plaintext);
+            }
+
+            try (InputStream in = new AnsibleVaultInputStream(file, vaultId -> "demo".toCharArray(), new AnsibleVaultTimings(), pool)) {
+                Assert.assertThat(readAll(in), equalTo(plaintext));
+            }
+            Assert.assertThat(pool.invocations.get(), equalTo(0));
+        } finally {
+            pool.shutdown();
+            Files.delete(file.toPath());
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) >= 0; ) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    private static class CountingPool extends ForkJoinPool {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        CountingPool(int parallelism) {
+            super(parallelism);
+        }
+
+        @Override
+        public <T> T invoke(ForkJoinTask<T> task) {
+            invocations.incrementAndGet();
+            return super.invoke(task);
+        }
+    }
+}
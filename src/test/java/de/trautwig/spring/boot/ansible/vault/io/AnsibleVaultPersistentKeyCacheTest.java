@@ -0,0 +1,138 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class AnsibleVaultPersistentKeyCacheTest {
+    private static final char[] PASSWORD = "demo".toCharArray();
+    private static final byte[] SALT = {0x01, 0x02, 0x03, 0x04};
+    private static final byte[] OTHER_SALT = {0x05, 0x06, 0x07, 0x08};
+
+    private Path directory;
+    private Path cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("vault-key-cache");
+        cacheFile = directory.resolve("keys");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void keysSurviveRestart() throws Exception {
+        byte[] expected = getKeys(AnsibleVaultPersistentKeyCache.open(cacheFile), PASSWORD, SALT);
+
+        AnsibleVaultPersistentKeyCache restarted = AnsibleVaultPersistentKeyCache.open(cacheFile);
+        Assert.assertThat(getKeys(restarted, PASSWORD, SALT), equalTo(expected));
+        Assert.assertThat(restarted.getHitCount(), equalTo(1L));
+        Assert.assertThat(restarted.getMissCount(), equalTo(0L));
+    }
+
+    @Test
+    public void otherPasswordIsDerivedAgain() throws Exception {
+        byte[] expected = getKeys(AnsibleVaultPersistentKeyCache.open(cacheFile), PASSWORD, SALT);
+
+        AnsibleVaultPersistentKeyCache restarted = AnsibleVaultPersistentKeyCache.open(cacheFile);
+        Assert.assertThat(getKeys(restarted, "other".toCharArray(), SALT), equalTo(new AnsibleVaultEncryptionKeys("other".toCharArray(), SALT).getEncoded()));
+        Assert.assertThat(restarted.getHitCount(), equalTo(0L));
+        Assert.assertThat(expected, equalTo(new AnsibleVaultEncryptionKeys(PASSWORD, SALT).getEncoded()));
+    }
+
+    @Test
+    public void keyFileProtectsEntries() throws Exception {
+        Path keyFile = createKeyFile("rw-------");
+        byte[] expected = getKeys(AnsibleVaultPersistentKeyCache.open(cacheFile, keyFile), PASSWORD, SALT);
+
+        AnsibleVaultPersistentKeyCache restarted = AnsibleVaultPersistentKeyCache.open(cacheFile, keyFile);
+        Assert.assertThat(getKeys(restarted, PASSWORD, SALT), equalTo(expected));
+        Assert.assertThat(getKeys(restarted, "other".toCharArray(), SALT), equalTo(new AnsibleVaultEncryptionKeys("other".toCharArray(), SALT).getEncoded()));
+        Assert.assertThat(restarted.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void unusedSaltsAreRemoved() throws Exception {
+        AnsibleVaultPersistentKeyCache cache = AnsibleVaultPersistentKeyCache.open(cacheFile);
+        getKeys(cache, PASSWORD, SALT);
+        getKeys(cache, PASSWORD, OTHER_SALT);
+        Assert.assertThat(cache.size(), equalTo(2));
+
+        AnsibleVaultPersistentKeyCache restarted = AnsibleVaultPersistentKeyCache.open(cacheFile);
+        getKeys(restarted, PASSWORD, SALT);
+        restarted.retainUsed();
+        Assert.assertThat(AnsibleVaultPersistentKeyCache.open(cacheFile).size(), equalTo(1));
+    }
+
+    @Test
+    public void deferredWritesAreFlushedOnce() throws Exception {
+        AnsibleVaultPersistentKeyCache cache = AnsibleVaultPersistentKeyCache.open(cacheFile);
+        cache.deferWrites();
+        getKeys(cache, PASSWORD, SALT);
+        getKeys(cache, PASSWORD, OTHER_SALT);
+        Assert.assertThat(Files.exists(cacheFile), equalTo(false));
+
+        cache.flush();
+        Assert.assertThat(AnsibleVaultPersistentKeyCache.open(cacheFile).size(), equalTo(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsKeyFileReadableByOthers() throws Exception {
+        AnsibleVaultPersistentKeyCache.open(cacheFile, createKeyFile("rw-r--r--"));
+    }
+
+    @Test
+    public void cacheFileIsOnlyAccessibleByOwner() throws Exception {
+        assumePosix();
+        getKeys(AnsibleVaultPersistentKeyCache.open(cacheFile), PASSWORD, SALT);
+        Assert.assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheFile)), equalTo("rw-------"));
+    }
+
+    private byte[] getKeys(AnsibleVaultPersistentKeyCache persistentCache, char[] password, byte[] salt) throws Exception {
+        AnsibleVaultKeyCache cache = new AnsibleVaultKeyCache(4);
+        cache.setPersistentCache(persistentCache);
+        return cache.getKeys(password, salt).getEncoded();
+    }
+
+    private Path createKeyFile(String permissions) throws IOException {
+        assumePosix();
+        byte[] key = new byte[32];
+        new Random().nextBytes(key);
+        Path keyFile = Files.write(directory.resolve("key"), key);
+        Files.setPosixFilePermissions(keyFile, PosixFilePermissions.fromString(permissions));
+        return keyFile;
+    }
+
+    private void assumePosix() {
+        Assume.assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    }
+}
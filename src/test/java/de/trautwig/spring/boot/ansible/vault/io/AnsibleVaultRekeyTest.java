@@ -0,0 +1,155 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+
+public class AnsibleVaultRekeyTest {
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("vaults");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void rekeysWithNewPasswordAndSalt() throws Exception {
+        Path vault = write("vault.yml", "demo", null, "secret: value\n");
+        byte[] original = Files.readAllBytes(vault);
+
+        AnsibleVaultRekey.Result result = new AnsibleVaultRekey(vaultId -> "demo".toCharArray(), "changed".toCharArray()).rekey(vault);
+
+        Assert.assertThat(result.isSuccessful(), is(true));
+        Assert.assertThat(result.getBytes(), equalTo((long) original.length));
+        Assert.assertThat(Files.readAllBytes(vault), not(equalTo(original)));
+        Assert.assertThat(read(vault, "changed"), equalTo("secret: value\n"));
+        Assert.assertThat(listDirectory(), equalTo(Arrays.asList("vault.yml")));
+    }
+
+    @Test
+    public void keepsVaultIdByDefault() throws Exception {
+        Path vault = write("vault.yml", "demo", "prod", "secret: value\n");
+
+        new AnsibleVaultRekey(vaultId -> "prod".equals(vaultId) ? "demo".toCharArray() : null, "changed".toCharArray()).rekey(vault);
+
+        Assert.assertThat(new String(Files.readAllBytes(vault), StandardCharsets.US_ASCII), startsWith("$ANSIBLE_VAULT;1.2;AES256;prod\n"));
+        Assert.assertThat(read(vault, "changed"), equalTo("secret: value\n"));
+    }
+
+    @Test
+    public void setsNewVaultId() throws Exception {
+        Path vault = write("vault.yml", "demo", "prod", "secret: value\n");
+
+        new AnsibleVaultRekey(vaultId -> "demo".toCharArray(), "changed".toCharArray(), "next").rekey(vault);
+
+        Assert.assertThat(new String(Files.readAllBytes(vault), StandardCharsets.US_ASCII), startsWith("$ANSIBLE_VAULT;1.2;AES256;next\n"));
+    }
+
+    @Test
+    public void rekeysAllFilesAndLeavesFailuresUntouched() throws Exception {
+        List<Path> vaults = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            vaults.add(write("vault" + i + ".yml", "demo", null, "secret: value" + i + "\n"));
+        }
+        Path wrong = write("wrong.yml", "other", null, "secret: other\n");
+        byte[] original = Files.readAllBytes(wrong);
+        vaults.add(wrong);
+
+        AnsibleVaultRekey rekey = new AnsibleVaultRekey(vaultId -> "demo".toCharArray(), "changed".toCharArray());
+        rekey.setParallelism(3);
+        List<AnsibleVaultRekey.Result> results = rekey.rekeyAll(vaults);
+
+        Assert.assertThat(results.size(), equalTo(9));
+        for (int i = 0; i < 8; i++) {
+            Assert.assertThat(results.get(i).getFile(), equalTo(vaults.get(i)));
+            Assert.assertThat(results.get(i).isSuccessful(), is(true));
+            Assert.assertThat(read(vaults.get(i), "changed"), equalTo("secret: value" + i + "\n"));
+        }
+        Assert.assertThat(results.get(8).getFailure(), instanceOf(SignatureException.class));
+        Assert.assertThat(Files.readAllBytes(wrong), equalTo(original));
+        Assert.assertThat(listDirectory().size(), equalTo(9));
+    }
+
+    @Test
+    public void commandRekeysWithPasswordFiles() throws Exception {
+        Path vault = write("vault.yml", "demo", null, "secret: value\n");
+        Path oldPassword = Files.write(directory.resolve("old.txt"), "demo\n".getBytes(StandardCharsets.UTF_8));
+        Path newPassword = Files.write(directory.resolve("new.txt"), "changed\n".getBytes(StandardCharsets.UTF_8));
+
+        int exitCode = AnsibleVaultRekeyCommand.run(new String[]{"--vault-password-file", oldPassword.toString(),
+                "--new-vault-password-file", newPassword.toString(), "--threads", "2", vault.toString()});
+
+        Assert.assertThat(exitCode, equalTo(0));
+        Assert.assertThat(read(vault, "changed"), equalTo("secret: value\n"));
+    }
+
+    private Path write(String name, String password, String vaultId, String plaintext) throws Exception {
+        Path vault = directory.resolve(name);
+        try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(vault), password.toCharArray(), vaultId)) {
+            out.write(plaintext.getBytes(StandardCharsets.UTF_8));
+        }
+        return vault;
+    }
+
+    private String read(Path vault, String password) throws Exception {
+        try (InputStream in = new AnsibleVaultInputStream(Files.newInputStream(vault), password.toCharArray())) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private List<String> listDirectory() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+}
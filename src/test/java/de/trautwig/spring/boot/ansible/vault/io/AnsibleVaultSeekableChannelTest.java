@@ -0,0 +1,116 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class AnsibleVaultSeekableChannelTest {
+    private Path vault;
+    private byte[] plaintext;
+
+    @Before
+    public void setUp() throws Exception {
+        plaintext = new byte[100_003];
+        new Random(42).nextBytes(plaintext);
+        vault = Files.createTempFile("vault", ".yml");
+        try (OutputStream out = new AnsibleVaultOutputStream(Files.newOutputStream(vault), "demo".toCharArray())) {
+            out.write(plaintext);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(vault);
+    }
+
+    @Test
+    public void readsSequentially() throws Exception {
+        try (SeekableByteChannel channel = new AnsibleVaultSeekableChannel(Files.newByteChannel(vault), "demo".toCharArray())) {
+            Assert.assertThat(channel.size(), equalTo((long) plaintext.length));
+            ByteBuffer result = ByteBuffer.allocate(plaintext.length);
+            while (channel.read(result) >= 0 && result.hasRemaining()) {
+                // read until the end
+            }
+            Assert.assertThat(result.array(), equalTo(plaintext));
+            Assert.assertThat(channel.read(ByteBuffer.allocate(1)), equalTo(-1));
+        }
+    }
+
+    @Test
+    public void readsRanges() throws Exception {
+        try (AnsibleVaultSeekableChannel channel = new AnsibleVaultSeekableChannel(Files.newByteChannel(vault), "demo".toCharArray())) {
+            Random random = new Random(7);
+            for (int i = 0; i < 100; i++) {
+                int position = random.nextInt(plaintext.length);
+                int length = Math.min(random.nextInt(5000) + 1, plaintext.length - position);
+                ByteBuffer range = ByteBuffer.allocate(length);
+                Assert.assertThat(channel.read(range, position), equalTo(length));
+                Assert.assertThat(range.array(), equalTo(Arrays.copyOfRange(plaintext, position, position + length)));
+            }
+            Assert.assertThat(channel.position(), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void seeksAndSkips() throws Exception {
+        try (AnsibleVaultSeekableChannel channel = new AnsibleVaultSeekableChannel(Files.newByteChannel(vault), "demo".toCharArray())) {
+            channel.position(plaintext.length - 10);
+            ByteBuffer tail = ByteBuffer.allocate(20);
+            Assert.assertThat(channel.read(tail), equalTo(10));
+            Assert.assertThat(Arrays.copyOf(tail.array(), 10), equalTo(Arrays.copyOfRange(plaintext, plaintext.length - 10, plaintext.length)));
+
+            channel.position(17);
+            Assert.assertThat(channel.skip(50_000), equalTo(50_000L));
+            ByteBuffer middle = ByteBuffer.allocate(3);
+            channel.read(middle);
+            Assert.assertThat(middle.array(), equalTo(Arrays.copyOfRange(plaintext, 50_017, 50_020)));
+        }
+    }
+
+    @Test(expected = SignatureException.class)
+    public void wrongPasswordFails() throws Exception {
+        new AnsibleVaultSeekableChannel(Files.newByteChannel(vault), "ThisPasswordIsWrong".toCharArray()).close();
+    }
+
+    @Test
+    public void counterCarriesIntoHigherBytes() {
+        byte[] iv = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x01, (byte) 0xFF};
+        byte[] expected = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x01, 0x01, 0x01};
+        Assert.assertThat(AnsibleVaultSeekableChannel.getCounter(iv, 0xFF02), equalTo(expected));
+    }
+
+    @Test
+    public void counterWrapsAround() {
+        byte[] iv = new byte[16];
+        Arrays.fill(iv, (byte) 0xFF);
+        byte[] expected = new byte[16];
+        Assert.assertThat(AnsibleVaultSeekableChannel.getCounter(iv, 1), equalTo(expected));
+    }
+}
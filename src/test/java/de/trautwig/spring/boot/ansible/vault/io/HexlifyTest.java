@@ -0,0 +1,100 @@
+/*
+    Copyright 2018 Marcus Trautwig
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+package de.trautwig.spring.boot.ansible.vault.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class HexlifyTest {
+
+    @Test
+    public void roundTripsAllByteValues() {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        char[] hex = Hexlify.hexlify(data, 0, data.length);
+        Assert.assertThat(Hexlify.unhexlify(hex, 0, hex.length), equalTo(data));
+    }
+
+    @Test
+    public void encodesBytesWithHighBitSet() {
+        byte[] data = {(byte) 0x80, (byte) 0x9f, (byte) 0xa5, (byte) 0xff};
+        Assert.assertThat(new String(Hexlify.hexlify(data, 0, data.length)), equalTo("809fa5ff"));
+
+        byte[] dst = new byte[2 * data.length];
+        Hexlify.hexlifyAscii(data, 0, data.length, dst, 0);
+        Assert.assertThat(new String(dst, StandardCharsets.US_ASCII), equalTo("809fa5ff"));
+    }
+
+    @Test
+    public void acceptsUpperCaseDigits() {
+        Assert.assertThat(Hexlify.unhexlify("0aFF"), equalTo(new byte[]{0x0a, (byte) 0xff}));
+    }
+
+    @Test
+    public void skipsLineBreaksInString() {
+        Assert.assertThat(Hexlify.unhexlify("0aff\n"), equalTo(new byte[]{0x0a, (byte) 0xff}));
+    }
+
+    @Test
+    public void skipsLineBreaks() {
+        byte[] src = "0a\nff\r\n10".getBytes();
+        byte[] dst = new byte[4];
+        int len = Hexlify.unhexlifyAscii(src, 0, src.length, dst, 1);
+        Assert.assertThat(len, equalTo(3));
+        Assert.assertThat(dst, equalTo(new byte[]{0x00, 0x0a, (byte) 0xff, 0x10}));
+    }
+
+    @Test
+    public void decodesFromCharSequence() {
+        byte[] dst = new byte[2];
+        int len = Hexlify.unhexlify(new StringBuilder("xx0a\nff"), 2, 5, dst, 0);
+        Assert.assertThat(len, equalTo(2));
+        Assert.assertThat(dst, equalTo(new byte[]{0x0a, (byte) 0xff}));
+    }
+
+    @Test
+    public void keepsIncompleteDigitInBuffer() {
+        ByteBuffer src = ByteBuffer.wrap("0a1\n".getBytes());
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        Assert.assertThat(Hexlify.unhexlify(src, dst), equalTo(1));
+        Assert.assertThat(src.position(), equalTo(2));
+    }
+
+    @Test
+    public void stopsWhenTargetBufferIsFull() {
+        ByteBuffer src = ByteBuffer.wrap("0a0b0c".getBytes());
+        ByteBuffer dst = ByteBuffer.allocate(2);
+        Assert.assertThat(Hexlify.unhexlify(src, dst), equalTo(2));
+        Assert.assertThat(src.position(), equalTo(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonHexDigits() {
+        Hexlify.unhexlify("0g");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddNumberOfDigits() {
+        Hexlify.unhexlify("0a\n1".toCharArray(), 0, 4);
+    }
+}